@@ -0,0 +1 @@
+ALTER TABLE AdminSettings ADD COLUMN CompressTransport BOOLEAN;
\ No newline at end of file
@@ -0,0 +1,2 @@
+ALTER TABLE Images ADD COLUMN Checksum STRING;
+ALTER TABLE Images ADD COLUMN StoredPhotoUrl STRING;
\ No newline at end of file
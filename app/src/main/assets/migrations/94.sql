@@ -0,0 +1 @@
+ALTER TABLE AdminSettings ADD COLUMN BatchUpload BOOLEAN;
\ No newline at end of file
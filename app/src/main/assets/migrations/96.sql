@@ -0,0 +1 @@
+ALTER TABLE Projects ADD COLUMN UploadPolicy STRING;
\ No newline at end of file
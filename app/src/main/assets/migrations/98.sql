@@ -0,0 +1,2 @@
+ALTER TABLE AdminSettings ADD COLUMN IncrementalUpload BOOLEAN;
+ALTER TABLE Responses ADD COLUMN DraftChecksum STRING;
\ No newline at end of file
@@ -0,0 +1,16 @@
+CREATE INDEX IF NOT EXISTS index_Responses_SurveyUUID_TimeEnded ON Responses (SurveyUUID, TimeEnded);
+CREATE INDEX IF NOT EXISTS index_Responses_SurveyUUID_Question ON Responses (SurveyUUID, Question);
+CREATE INDEX IF NOT EXISTS index_Responses_UUID ON Responses (UUID);
+CREATE INDEX IF NOT EXISTS index_ResponsePhotos_Response ON ResponsePhotos (Response);
+CREATE INDEX IF NOT EXISTS index_Surveys_ProjectId_RosterUUID_LastUpdated ON Surveys (ProjectId, RosterUUID, LastUpdated);
+CREATE INDEX IF NOT EXISTS index_Surveys_UUID ON Surveys (UUID);
+CREATE INDEX IF NOT EXISTS index_OptionScores_ScoreUnit_Option ON OptionScores (ScoreUnit, Option);
+CREATE INDEX IF NOT EXISTS index_NextQuestions_RemoteInstrumentId ON NextQuestions (RemoteInstrumentId, Deleted);
+CREATE INDEX IF NOT EXISTS index_MultipleSkips_RemoteInstrumentId ON MultipleSkips (RemoteInstrumentId, Deleted);
+CREATE INDEX IF NOT EXISTS index_ConditionSkips_RemoteInstrumentId ON ConditionSkips (RemoteInstrumentId, Deleted);
+CREATE INDEX IF NOT EXISTS index_FollowUpQuestions_RemoteInstrumentId ON FollowUpQuestions (RemoteInstrumentId);
+CREATE INDEX IF NOT EXISTS index_Displays_RemoteId ON Displays (RemoteId);
+CREATE INDEX IF NOT EXISTS index_DisplayInstructions_RemoteId ON DisplayInstructions (RemoteId);
+CREATE INDEX IF NOT EXISTS index_Instructions_RemoteId ON Instructions (RemoteId);
+CREATE INDEX IF NOT EXISTS index_OutboxEntries_Model ON OutboxEntries (ModelClass, ModelId);
+CREATE INDEX IF NOT EXISTS index_OutboxEntries_NextAttemptAt ON OutboxEntries (NextAttemptAt);
\ No newline at end of file
@@ -8,20 +8,27 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import org.adaptlab.chpir.android.survey.models.DeviceSyncEntry;
+import org.adaptlab.chpir.android.survey.models.SyncWatermark;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.adaptlab.chpir.android.survey.R;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import okhttp3.Request;
+import okhttp3.Response;
+
 public class ActiveRecordCloudSync {
     private static final String TAG = "ActiveRecordCloudSync";
     private static Map<String, Class<? extends ReceiveModel>> mReceiveTables =
             new LinkedHashMap<String, Class<? extends ReceiveModel>>();
+    private static Map<String, List<String>> mReceiveTableDependencies =
+            new HashMap<String, List<String>>();
     private static Map<String, Class<? extends SendModel>> mSendTables =
             new LinkedHashMap<String, Class<? extends SendModel>>();
 
@@ -29,16 +36,27 @@ public class ActiveRecordCloudSync {
     private static String mAccessToken;     // API Access Key
     private static int mVersionCode;        // App version code from Manifest
     private static String mLastSyncTime;
+    private static boolean mCompressTransport;  // Gzip request and response bodies
+    private static boolean mBatchUpload;        // Post each survey with its responses at once
+    private static boolean mIncrementalUpload;  // Post responses as drafts while in progress
+    private static int mMaxUploadsInFlight = 4; // Upload calls outstanding at any one time
+    private static UploadPolicy mUploadPolicy = new UploadPolicy();
 
     /**
      * Add a ReceiveTable.  A ReceiveTable is an active record model class that extends the
      * ReceiveModel abstract class.
      *
+     * Any remote tables that must be written before this one can be listed in dependsOn.
+     * Independent tables are downloaded concurrently during a sync.
+     *
      * @param tableName
      * @param receiveTable
+     * @param dependsOn
      */
-    public static void addReceiveTable(String tableName, Class<? extends ReceiveModel> receiveTable) {
+    public static void addReceiveTable(String tableName, Class<? extends ReceiveModel> receiveTable,
+                                       String... dependsOn) {
         mReceiveTables.put(tableName, receiveTable);
+        mReceiveTableDependencies.put(tableName, Arrays.asList(dependsOn));
     }
 
     public static Map<String, Class<? extends ReceiveModel>> getReceiveTables() {
@@ -76,20 +94,23 @@ public class ActiveRecordCloudSync {
         Date currentTime = new Date();
         ActiveRecordCloudSync.setLastSyncTime(Long.toString(currentTime.getTime()));
         DeviceSyncEntry deviceSyncEntry = new DeviceSyncEntry();
-        for (Map.Entry<String, Class<? extends ReceiveModel>> entry : mReceiveTables.entrySet()) {
-            if (AppUtil.DEBUG) {
-                Log.i(TAG, "Syncing " + entry.getValue() + " from remote table " + entry.getKey());
-            }
-            HttpFetchr httpFetchr = new HttpFetchr(entry.getKey(), entry.getValue());
-            httpFetchr.fetch();
-        }
+        SyncWatermark.seed(AppUtil.getProjectId(), mReceiveTables.keySet(),
+                AppUtil.getAdminSettingsInstance().getLastSyncTime());
+        new SyncScheduler(mReceiveTables, mReceiveTableDependencies, context.getCacheDir()).run();
+        DatabaseConfig.checkpoint();
         deviceSyncEntry.pushRemote();
+        TransportCompression.logCounters();
+        ReceiveModelCache.logCounters();
         downloadNotification(context, android.R.drawable.stat_sys_download_done, R.string.sync_notification_complete_text);
     }
 
     public static void downloadNotification(Context context, int title, int text) {
+        downloadNotification(context, title, context.getString(text));
+    }
+
+    public static void downloadNotification(Context context, int title, String text) {
         NotificationUtils.showNotification(context, title,
-                R.string.app_name, context.getString(text),
+                R.string.app_name, text,
                 Notification.BADGE_ICON_SMALL, NotificationCompat.PRIORITY_DEFAULT,
                 NotificationManager.IMPORTANCE_DEFAULT);
     }
@@ -128,6 +149,46 @@ public class ActiveRecordCloudSync {
         return mVersionCode;
     }
 
+    public static void setCompressTransport(boolean compressTransport) {
+        mCompressTransport = compressTransport;
+    }
+
+    public static boolean getCompressTransport() {
+        return mCompressTransport;
+    }
+
+    public static void setBatchUpload(boolean batchUpload) {
+        mBatchUpload = batchUpload;
+    }
+
+    public static boolean getBatchUpload() {
+        return mBatchUpload;
+    }
+
+    public static void setIncrementalUpload(boolean incrementalUpload) {
+        mIncrementalUpload = incrementalUpload;
+    }
+
+    public static boolean getIncrementalUpload() {
+        return mIncrementalUpload;
+    }
+
+    public static void setMaxUploadsInFlight(int maxUploadsInFlight) {
+        mMaxUploadsInFlight = maxUploadsInFlight;
+    }
+
+    public static int getMaxUploadsInFlight() {
+        return mMaxUploadsInFlight;
+    }
+
+    public static void setUploadPolicy(UploadPolicy uploadPolicy) {
+        mUploadPolicy = uploadPolicy;
+    }
+
+    public static UploadPolicy getUploadPolicy() {
+        return mUploadPolicy;
+    }
+
     /*
      * Append to all api calls.
      * Ensure that the access token is valid and the version code is up to date
@@ -138,6 +199,16 @@ public class ActiveRecordCloudSync {
                 "&last_sync_time=" + AppUtil.getAdminSettingsInstance().getLastSyncTime();
     }
 
+    /*
+     * Parameters for fetching a single receive table. The last sync time is the table's own
+     * high-water mark so that the remote only returns rows changed since that table last
+     * committed.
+     */
+    static String getTableParams(String tableLastSyncTime) {
+        return "?access_token=" + getAccessToken() + "&version_code=" + getVersionCode() +
+                "&last_sync_time=" + tableLastSyncTime;
+    }
+
     public static String getEndPoint2() {
         return AppUtil.getAdminSettingsInstance().getApi2url();
     }
@@ -151,7 +222,7 @@ public class ActiveRecordCloudSync {
         return mLastSyncTime;
     }
 
-    private static void setLastSyncTime(String time) {
+    static void setLastSyncTime(String time) {
         mLastSyncTime = time;
     }
 
@@ -162,17 +233,20 @@ public class ActiveRecordCloudSync {
     private static int ping(String url, int timeout) {
         if (url == null) return -1;
         url = url + getParams();
+        Response response = null;
         try {
-            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-            connection.setConnectTimeout(timeout);
-            connection.setReadTimeout(timeout);
-            connection.setRequestMethod("HEAD");
-            int responseCode = connection.getResponseCode();
+            Request request = new Request.Builder().url(url).head().build();
+            response = HttpUtil.getClient(timeout).newCall(request).execute();
+            int responseCode = response.code();
             if (AppUtil.DEBUG)
                 Log.i(TAG, "Received response code " + responseCode + " for api endpoint");
             return responseCode;
         } catch (IOException exception) {
             return -1;
+        } catch (IllegalArgumentException exception) {
+            return -1;
+        } finally {
+            if (response != null) response.close();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import org.json.JSONObject;
+
+import java.io.File;
+
+/*
+ * A SendModel with a binary file. Large files are uploaded on their own in resumable chunks
+ * by ChunkedUpload, after which the model is posted with toJSON(uploadId) in place of the
+ * file contents.
+ */
+public interface Attachment {
+    /*
+     * The file to upload, or null if there is none.
+     */
+    File getAttachmentFile();
+
+    String getAttachmentType();
+
+    JSONObject toJSON(String uploadId);
+}
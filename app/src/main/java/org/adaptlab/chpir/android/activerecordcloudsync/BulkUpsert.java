@@ -0,0 +1,291 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.support.v4.util.LongSparseArray;
+import android.util.Log;
+
+import com.activeandroid.Cache;
+import com.activeandroid.Model;
+import com.activeandroid.TableInfo;
+import com.activeandroid.content.ContentProvider;
+import com.activeandroid.serializer.TypeSerializer;
+
+import org.adaptlab.chpir.android.survey.BuildConfig;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Writes rows keyed by RemoteId without a SELECT and a save() per row.
+ *
+ * Within a session (begin() ... end() on the same thread), the RemoteId to row id map of
+ * each table is loaded once and every row is written through a compiled statement that
+ * is reused for the rest of the session. Existing rows keep their row id, so foreign keys
+ * that point at them stay valid, and columns a ReceiveModel reports as local are left
+ * untouched, as are the columns passed to upsert(model, keptColumns) for that row. Outside
+ * of a session each upsert looks up its own row id.
+ *
+ * A model that updated a row with some of its columns left untouched does not hold the
+ * row's values for them, so it is not put in ActiveAndroid's entity cache; the stale
+ * instance is dropped and the row is read again when it is next loaded.
+ */
+public class BulkUpsert {
+    private static final String TAG = "BulkUpsert";
+    private static final String REMOTE_ID_COLUMN = "RemoteId";
+    private static final ThreadLocal<Map<Class<? extends Model>, BulkUpsert>> sSessions =
+            new ThreadLocal<>();
+    private static Field sIdField;
+
+    private final Class<? extends Model> mType;
+    private final TableInfo mTableInfo;
+    private final Field mRemoteIdField;
+    private final List<Field> mInsertFields = new ArrayList<>();
+    private final List<Field> mUpdateFields = new ArrayList<>();
+    private final List<String> mLocalColumns;
+    private final SQLiteStatement mInsertStatement;
+    private final Map<List<String>, UpdateStatement> mUpdateStatements = new HashMap<>();
+    private final SQLiteStatement mFindStatement;
+    private LongSparseArray<Long> mRowIds;
+
+    private BulkUpsert(Model prototype, boolean preload) {
+        mType = prototype.getClass();
+        mTableInfo = Cache.getTableInfo(mType);
+        mLocalColumns = (prototype instanceof ReceiveModel) ?
+                Arrays.asList(((ReceiveModel) prototype).localColumns()) : new ArrayList<String>();
+        Field remoteIdField = null;
+        StringBuilder insertColumns = new StringBuilder();
+        StringBuilder insertValues = new StringBuilder();
+        for (Field field : mTableInfo.getFields()) {
+            String columnName = mTableInfo.getColumnName(field);
+            if (columnName.equals(mTableInfo.getIdName())) continue;
+            field.setAccessible(true);
+            if (columnName.equals(REMOTE_ID_COLUMN)) remoteIdField = field;
+            mInsertFields.add(field);
+            insertColumns.append(insertColumns.length() == 0 ? "" : ", ").append(columnName);
+            insertValues.append(insertValues.length() == 0 ? "?" : ", ?");
+            if (!mLocalColumns.contains(columnName)) mUpdateFields.add(field);
+        }
+        if (remoteIdField == null) {
+            throw new IllegalArgumentException(mTableInfo.getTableName() + " has no RemoteId");
+        }
+        mRemoteIdField = remoteIdField;
+
+        SQLiteDatabase db = Cache.openDatabase();
+        String table = mTableInfo.getTableName();
+        mInsertStatement = db.compileStatement("INSERT INTO " + table + " (" +
+                insertColumns + ") VALUES (" + insertValues + ")");
+        mFindStatement = db.compileStatement("SELECT " + mTableInfo.getIdName() + " FROM " +
+                table + " WHERE " + REMOTE_ID_COLUMN + " = ?");
+        if (preload) preloadRowIds(db);
+    }
+
+    private void preloadRowIds(SQLiteDatabase db) {
+        mRowIds = new LongSparseArray<>();
+        Cursor cursor = db.rawQuery("SELECT " + mTableInfo.getIdName() + ", " + REMOTE_ID_COLUMN +
+                " FROM " + mTableInfo.getTableName() + " WHERE " + REMOTE_ID_COLUMN +
+                " IS NOT NULL", null);
+        try {
+            while (cursor.moveToNext()) {
+                mRowIds.put(cursor.getLong(1), cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * Start a session on the calling thread. Sessions are not nested; a second call while
+     * a session is open is ignored.
+     */
+    public static void begin() {
+        if (sSessions.get() == null) {
+            sSessions.set(new HashMap<Class<? extends Model>, BulkUpsert>());
+        }
+    }
+
+    /*
+     * Close the session on the calling thread and notify observers of every table written.
+     */
+    public static void end() {
+        Map<Class<? extends Model>, BulkUpsert> session = sSessions.get();
+        sSessions.remove();
+        if (session == null) return;
+        for (BulkUpsert bulkUpsert : session.values()) {
+            bulkUpsert.close();
+            Cache.getContext().getContentResolver().notifyChange(
+                    ContentProvider.createUri(bulkUpsert.mType, null), null);
+        }
+    }
+
+    /*
+     * Insert model, or update the row that already has its RemoteId, and set its id.
+     * keptColumns are left as they are when the row is updated.
+     */
+    public static void upsert(Model model, String... keptColumns) {
+        List<String> kept = Arrays.asList(keptColumns);
+        Map<Class<? extends Model>, BulkUpsert> session = sSessions.get();
+        if (session == null) {
+            BulkUpsert bulkUpsert = new BulkUpsert(model, false);
+            try {
+                bulkUpsert.write(model, kept);
+            } finally {
+                bulkUpsert.close();
+            }
+            Cache.getContext().getContentResolver().notifyChange(
+                    ContentProvider.createUri(model.getClass(), model.getId()), null);
+            return;
+        }
+        BulkUpsert bulkUpsert = session.get(model.getClass());
+        if (bulkUpsert == null) {
+            bulkUpsert = new BulkUpsert(model, true);
+            session.put(model.getClass(), bulkUpsert);
+        }
+        bulkUpsert.write(model, kept);
+    }
+
+    /*
+     * The UPDATE of every non-local column except keptColumns, compiled once per session.
+     */
+    private UpdateStatement getUpdateStatement(List<String> keptColumns) {
+        UpdateStatement update = mUpdateStatements.get(keptColumns);
+        if (update == null) {
+            List<Field> fields = new ArrayList<>();
+            StringBuilder columns = new StringBuilder();
+            for (Field field : mUpdateFields) {
+                String columnName = mTableInfo.getColumnName(field);
+                if (keptColumns.contains(columnName)) continue;
+                fields.add(field);
+                columns.append(columns.length() == 0 ? "" : ", ").append(columnName)
+                        .append(" = ?");
+            }
+            update = new UpdateStatement(Cache.openDatabase().compileStatement("UPDATE " +
+                    mTableInfo.getTableName() + " SET " + columns + " WHERE " +
+                    mTableInfo.getIdName() + " = ?"), fields);
+            mUpdateStatements.put(keptColumns, update);
+        }
+        return update;
+    }
+
+    private void write(Model model, List<String> keptColumns) {
+        try {
+            Long remoteId = (Long) mRemoteIdField.get(model);
+            Long rowId = (remoteId == null) ? null : findRowId(remoteId);
+            boolean partial = false;
+            if (rowId == null) {
+                bind(mInsertStatement, mInsertFields, model);
+                rowId = mInsertStatement.executeInsert();
+                if (remoteId != null && mRowIds != null) mRowIds.put(remoteId, rowId);
+            } else {
+                UpdateStatement update = getUpdateStatement(keptColumns);
+                bind(update.mStatement, update.mFields, model);
+                update.mStatement.bindLong(update.mFields.size() + 1, rowId);
+                update.mStatement.executeUpdateDelete();
+                partial = !mLocalColumns.isEmpty() || !keptColumns.isEmpty();
+            }
+            getIdField().set(model, rowId);
+            // Replace any stale instance of this row held by ActiveAndroid's entity cache
+            if (partial) {
+                Model cached = Cache.getEntity(mType, rowId);
+                if (cached != null) Cache.removeEntity(cached);
+            } else {
+                Cache.addEntity(model);
+            }
+        } catch (IllegalAccessException iae) {
+            Log.e(TAG, "Unable to access " + mTableInfo.getTableName() + " columns", iae);
+        } catch (NoSuchFieldException nsfe) {
+            Log.e(TAG, "Unable to set " + mTableInfo.getTableName() + " id", nsfe);
+        }
+    }
+
+    private Long findRowId(long remoteId) {
+        if (mRowIds != null) return mRowIds.get(remoteId);
+        mFindStatement.bindLong(1, remoteId);
+        try {
+            return mFindStatement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Mirrors the value conversion Model.save() applies to each column.
+     */
+    private static void bind(SQLiteStatement statement, List<Field> fields, Model model)
+            throws IllegalAccessException {
+        statement.clearBindings();
+        for (int i = 0; i < fields.size(); i++) {
+            int index = i + 1;
+            Field field = fields.get(i);
+            Object value = field.get(model);
+            if (value != null) {
+                TypeSerializer typeSerializer = Cache.getParserForType(field.getType());
+                if (typeSerializer != null) {
+                    value = typeSerializer.serialize(value);
+                }
+            }
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+            } else if (value instanceof Float || value instanceof Double) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else if (value instanceof Model) {
+                Long id = ((Model) value).getId();
+                if (id == null) {
+                    statement.bindNull(index);
+                } else {
+                    statement.bindLong(index, id);
+                }
+            } else if (value instanceof Enum) {
+                statement.bindString(index, ((Enum<?>) value).name());
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+    }
+
+    private void close() {
+        mInsertStatement.close();
+        for (UpdateStatement update : mUpdateStatements.values()) {
+            update.mStatement.close();
+        }
+        mFindStatement.close();
+    }
+
+    private static Field getIdField() throws NoSuchFieldException {
+        if (sIdField == null) {
+            Field field = Model.class.getDeclaredField("mId");
+            field.setAccessible(true);
+            sIdField = field;
+        }
+        return sIdField;
+    }
+
+    static void logThroughput(String tableName, int rows, long elapsedMillis) {
+        if (BuildConfig.DEBUG && elapsedMillis > 0) {
+            Log.i(TAG, tableName + ": " + rows + " rows in " + elapsedMillis + " ms (" +
+                    (rows * 1000L / elapsedMillis) + " rows/s)");
+        }
+    }
+
+    private static class UpdateStatement {
+        private final SQLiteStatement mStatement;
+        private final List<Field> mFields;
+
+        UpdateStatement(SQLiteStatement statement, List<Field> fields) {
+            mStatement = statement;
+            mFields = fields;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import android.util.Log;
+
+import org.adaptlab.chpir.android.survey.BuildConfig;
+import org.adaptlab.chpir.android.survey.models.OutboxEntry;
+import org.adaptlab.chpir.android.survey.models.UploadSession;
+import org.apache.commons.codec.binary.Hex;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+/*
+ * Uploads the file of an Attachment in chunks that each survive a lost connection, then posts
+ * the attachment with the id of the upload in place of the file. Each call is one step:
+ *
+ *   POST uploads             {"upload": {"size", "checksum", "content_type"}} answered with
+ *                            {"id": ...}, which is kept in an UploadSession
+ *   PATCH uploads/<id>       the CHUNK_SIZE bytes at Upload-Offset, with their SHA-256 in
+ *                            Upload-Checksum, answered with the new Upload-Offset
+ *   POST <remote table>      Attachment.toJSON(id) once every byte is acknowledged
+ *
+ * The acknowledged offset is saved after every chunk so an interrupted upload resumes where
+ * the remote left off. A 409 carries the remote's own offset, for instance when the response
+ * to a chunk it stored was lost, and the upload continues from there.
+ *
+ * Steps are started and their results applied by UploadScheduler on its writer thread.
+ */
+public class ChunkedUpload {
+    private static final String TAG = "ChunkedUpload";
+    public static final String REMOTE_TABLE = "uploads";
+    public static final String UPLOAD_OFFSET = "Upload-Offset";
+    private static final String UPLOAD_CHECKSUM = "Upload-Checksum";
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final MediaType OFFSET_OCTET_STREAM =
+            MediaType.parse("application/offset+octet-stream");
+    private static final int CREATE = 0;
+    private static final int SEND_CHUNK = 1;
+    private static final int FINISH = 2;
+    private static volatile boolean sUnsupported;
+
+    private final OutboxEntry mEntry;
+    private final Attachment mAttachment;
+    private final File mFile;
+    private UploadSession mSession;
+    private String mChecksum;
+    private int mStep;
+    private long mBytes;
+
+    /*
+     * The chunked upload of the file of element, or null if the file fits in one chunk or
+     * the remote has answered that it does not take chunked uploads.
+     */
+    public static ChunkedUpload create(OutboxEntry entry, SendModel element) {
+        if (sUnsupported || !(element instanceof Attachment)) return null;
+        File file = ((Attachment) element).getAttachmentFile();
+        if (file == null || file.length() <= CHUNK_SIZE) return null;
+        return new ChunkedUpload(entry, element, file);
+    }
+
+    private ChunkedUpload(OutboxEntry entry, SendModel element, File file) {
+        mEntry = entry;
+        mAttachment = (Attachment) element;
+        mFile = file;
+        mSession = UploadSession.findByModel(element);
+        if (mSession != null && !mSession.isFor(file.getPath(), file.length())) {
+            mSession.delete();
+            mSession = null;
+        }
+    }
+
+    public static boolean isUnsupported() {
+        return sUnsupported;
+    }
+
+    /*
+     * The request for the next step.
+     */
+    public Request createRequest() throws IOException {
+        if (mSession == null) {
+            mStep = CREATE;
+            return createSessionRequest();
+        } else if (!mSession.isComplete()) {
+            mStep = SEND_CHUNK;
+            return createChunkRequest();
+        } else {
+            mStep = FINISH;
+            String url = ActiveRecordCloudSync.getEndPoint() + mEntry.getRemoteTable() +
+                    ActiveRecordCloudSync.getParams();
+            byte[] json = mAttachment.toJSON(mSession.getSessionId()).toString()
+                    .getBytes(Charset.forName("UTF-8"));
+            mBytes = json.length;
+            return HttpUtil.jsonPost(url, json, mEntry.getIdempotencyKey());
+        }
+    }
+
+    private Request createSessionRequest() throws IOException {
+        if (mChecksum == null) mChecksum = ImageStore.checksum(mFile);
+        JSONObject json = new JSONObject();
+        try {
+            JSONObject upload = new JSONObject();
+            upload.put("size", mFile.length());
+            upload.put("checksum", mChecksum);
+            upload.put("content_type", mAttachment.getAttachmentType());
+            json.put("upload", upload);
+        } catch (JSONException je) {
+            Log.e(TAG, "JSON exception", je);
+        }
+        byte[] body = json.toString().getBytes(Charset.forName("UTF-8"));
+        mBytes = body.length;
+        String key = UUID.nameUUIDFromBytes((REMOTE_TABLE + mEntry.getIdempotencyKey())
+                .getBytes(Charset.forName("UTF-8"))).toString();
+        return HttpUtil.jsonPost(ActiveRecordCloudSync.getEndPoint() + REMOTE_TABLE +
+                ActiveRecordCloudSync.getParams(), body, key);
+    }
+
+    private Request createChunkRequest() throws IOException {
+        long offset = mSession.getOffset();
+        byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, mSession.getFileSize() - offset)];
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            file.seek(offset);
+            file.readFully(chunk);
+        } finally {
+            file.close();
+        }
+        mBytes = chunk.length;
+        String url = ActiveRecordCloudSync.getEndPoint() + REMOTE_TABLE + "/" +
+                mSession.getSessionId() + ActiveRecordCloudSync.getParams();
+        return new Request.Builder().url(url)
+                .header("Accept", "application/json")
+                .header(UPLOAD_OFFSET, Long.toString(offset))
+                .header(UPLOAD_CHECKSUM, "sha256 " + sha256(chunk))
+                .patch(RequestBody.create(OFFSET_OCTET_STREAM, chunk))
+                .build();
+    }
+
+    /*
+     * True while the file is being uploaded, false once the attachment itself is posted.
+     */
+    public boolean isUploadingFile() {
+        return mStep != FINISH;
+    }
+
+    /*
+     * Apply the result of a CREATE or SEND_CHUNK step. True if the upload should go on with
+     * the next step, false if this attempt failed.
+     */
+    public boolean advance(int responseCode, String uploadOffset, String responseBody) {
+        boolean successful = responseCode >= 200 && responseCode < 300;
+        if (mStep == CREATE) {
+            if (successful) return startSession(responseBody);
+            if (responseCode == HttpURLConnection.HTTP_NOT_FOUND ||
+                    responseCode == HttpURLConnection.HTTP_BAD_METHOD) {
+                sUnsupported = true;
+            }
+            return false;
+        }
+        if (successful || responseCode == HttpURLConnection.HTTP_CONFLICT) {
+            long offset = parseOffset(uploadOffset);
+            if (offset < 0 && successful) offset = mSession.getOffset() + mBytes;
+            // An offset that has not moved would only send the same chunk again
+            if (offset < 0 || offset == mSession.getOffset() ||
+                    offset > mSession.getFileSize()) {
+                return false;
+            }
+            mSession.setOffset(offset);
+            if (BuildConfig.DEBUG) Log.i(TAG, mSession.getSessionId() + " at " + offset);
+            return true;
+        }
+        discardExpiredSession(responseCode);
+        return false;
+    }
+
+    private boolean startSession(String responseBody) {
+        try {
+            String id = new JSONObject(responseBody).getString("id");
+            mSession = new UploadSession((SendModel) mAttachment, id, mFile.getPath(),
+                    mFile.length(), mChecksum);
+            mSession.save();
+            return true;
+        } catch (JSONException | NullPointerException e) {
+            Log.e(TAG, "Invalid upload session " + responseBody, e);
+            return false;
+        }
+    }
+
+    private static long parseOffset(String uploadOffset) {
+        if (uploadOffset == null) return -1;
+        try {
+            return Long.parseLong(uploadOffset.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /*
+     * Called once the attachment is posted.
+     */
+    public void setAsSent() {
+        if (mSession != null) mSession.delete();
+    }
+
+    public void fail(int responseCode) {
+        discardExpiredSession(responseCode);
+    }
+
+    /*
+     * The remote no longer knows the session, so the next attempt starts a new one.
+     */
+    private void discardExpiredSession(int responseCode) {
+        if (mSession == null) return;
+        if (responseCode == HttpURLConnection.HTTP_NOT_FOUND ||
+                responseCode == HttpURLConnection.HTTP_GONE) {
+            mSession.delete();
+            mSession = null;
+        }
+    }
+
+    /*
+     * Size of the body of the last step.
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    private static String sha256(byte[] bytes) throws IOException {
+        try {
+            return Hex.encodeHexString(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
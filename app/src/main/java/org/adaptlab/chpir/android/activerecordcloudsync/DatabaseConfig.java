@@ -0,0 +1,92 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.activeandroid.ActiveAndroid;
+import com.activeandroid.Cache;
+
+import org.adaptlab.chpir.android.survey.BuildConfig;
+
+/*
+ * Connection settings for the ActiveAndroid database, applied once it is opened.
+ *
+ * The database is switched to write-ahead logging. SQLiteDatabase then keeps a pool of
+ * connections, so reads on the UI thread and in loaders use their own read connections and
+ * see the last committed data while a sync holds a write transaction on the primary
+ * connection, instead of waiting for it.
+ *
+ * A sync writes far more pages than surveys do, so the log is checkpointed less often while
+ * it runs and checkpointed once it is done, and its file is cut back to
+ * JOURNAL_SIZE_LIMIT_BYTES when the log is reset.
+ */
+public class DatabaseConfig {
+    private static final String TAG = "DatabaseConfig";
+    // Pages written to the log before a commit checkpoints it; SQLite's default is 1000
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 4000;
+    private static final long JOURNAL_SIZE_LIMIT_BYTES = 4 * 1024 * 1024;
+    private static boolean sWriteAheadLogging;
+
+    /*
+     * Called after ActiveAndroid is initialized and before any transaction is started.
+     */
+    public static void configure() {
+        SQLiteDatabase db = Cache.openDatabase();
+        try {
+            sWriteAheadLogging = db.enableWriteAheadLogging();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Unable to enable write-ahead logging", e);
+        }
+        if (!sWriteAheadLogging) return;
+        pragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        pragma(db, "PRAGMA journal_size_limit = " + JOURNAL_SIZE_LIMIT_BYTES);
+        if (BuildConfig.DEBUG) Log.i(TAG, "Write-ahead logging enabled");
+    }
+
+    public static boolean isWriteAheadLogging() {
+        return sWriteAheadLogging;
+    }
+
+    /*
+     * Begin a transaction that readers on other connections do not wait for. Ended with
+     * ActiveAndroid.endTransaction() like any other.
+     */
+    public static void beginTransaction() {
+        if (sWriteAheadLogging) {
+            Cache.openDatabase().beginTransactionNonExclusive();
+        } else {
+            ActiveAndroid.beginTransaction();
+        }
+    }
+
+    /*
+     * Copy the log into the database without waiting for readers, after a large write.
+     */
+    public static void checkpoint() {
+        if (!sWriteAheadLogging) return;
+        long start = System.currentTimeMillis();
+        String result = pragma(Cache.openDatabase(), "PRAGMA wal_checkpoint(PASSIVE)");
+        if (BuildConfig.DEBUG) Log.i(TAG, "Checkpoint (busy, log pages, checkpointed pages) " +
+                result + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /*
+     * Run a PRAGMA with rawQuery(), since execSQL() refuses statements that return a row,
+     * and return that row.
+     */
+    private static String pragma(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            if (!cursor.moveToFirst()) return null;
+            StringBuilder row = new StringBuilder();
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                if (i > 0) row.append(", ");
+                row.append(cursor.getString(i));
+            }
+            return row.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import android.content.Context;
+
+import org.adaptlab.chpir.android.survey.models.OutboxEntry;
+import org.adaptlab.chpir.android.survey.models.Response;
+
+/*
+ * Opt-in upload of responses while their survey is still in progress, enabled with
+ * ActiveRecordCloudSync.setIncrementalUpload(...). Each saved response is posted to
+ * REMOTE_TABLE, where the remote keeps it as a draft of the survey with its survey_uuid and
+ * replaces an earlier draft with the same uuid unless its time_ended is older.
+ *
+ * When the survey is submitted, responses whose latest content the remote already holds as
+ * a draft are not uploaded again; posting the survey completes them.
+ */
+public class DraftUpload {
+    public static final String REMOTE_TABLE = "draft_responses";
+
+    public static boolean isEnabled() {
+        return ActiveRecordCloudSync.getIncrementalUpload();
+    }
+
+    /*
+     * Called after response is saved. An edit made while an earlier draft is still waiting
+     * is sent with that draft, since the outbox serializes the response when it posts it.
+     */
+    public static void enqueue(Context context, Response response) {
+        if (!isEnabled() || response.getId() == null || response.isDraftSent()) return;
+        OutboxEntry.enqueue(response, REMOTE_TABLE);
+        OutboxScheduler.schedule(context.getApplicationContext());
+    }
+
+    /*
+     * Drop the draft of response that has not been posted yet, because response is about to
+     * be uploaded with its survey.
+     */
+    public static void cancel(Response response) {
+        OutboxEntry entry = OutboxEntry.findByModel(response, REMOTE_TABLE);
+        if (entry != null && !OutboxEntry.IN_FLIGHT.equals(entry.getState())) entry.delete();
+    }
+}
@@ -1,98 +1,384 @@
 package org.adaptlab.chpir.android.activerecordcloudsync;
 
 import android.text.TextUtils;
+import android.util.JsonReader;
 import android.util.Log;
 
 import com.activeandroid.ActiveAndroid;
 
 import org.adaptlab.chpir.android.survey.BuildConfig;
-import org.json.JSONArray;
+import org.adaptlab.chpir.android.survey.models.HttpValidator;
+import org.adaptlab.chpir.android.survey.models.SyncCheckpoint;
+import org.adaptlab.chpir.android.survey.models.SyncStat;
+import org.adaptlab.chpir.android.survey.models.SyncWatermark;
+import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.json.JSONException;
+import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URLEncoder;
+
+import okhttp3.Request;
+import okhttp3.Response;
 
 public class HttpFetchr {
     private static final String TAG = "HttpFetchr";
+    // Number of rows written per transaction while streaming a receive table
+    private static final int BATCH_SIZE = 500;
+    // Number of rows requested per page. Remotes that do not paginate return the whole
+    // table without a next cursor, which is handled as a single page.
+    private static final int PAGE_SIZE = 1000;
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
     private Class<? extends ReceiveModel> mReceiveTableClass;
     private String mRemoteTableName;
+    private String mCursor;
+    private String mBaseSyncTime;
+    private String mPendingSyncTime;
+    private volatile boolean mCancelled;
+    private HttpValidator mValidator;
+    private String mETag;
+    private String mLastModified;
+    // Download timings are added on the downloading thread, the rest on the writer thread
+    private final SyncStat mStat;
+    private boolean mFirstByteRecorded;
 
     public HttpFetchr(String remoteTableName, Class<? extends ReceiveModel> receiveTableClass) {
         mReceiveTableClass = receiveTableClass;
         mRemoteTableName = remoteTableName;
+        mStat = new SyncStat(ActiveRecordCloudSync.getLastSyncTime(), SyncStat.DOWNLOAD,
+                remoteTableName);
+    }
+
+    /*
+     * Restore the page checkpoint left by an interrupted download of this table. A checkpoint
+     * is only resumed while the table's watermark is unchanged, since its cursor belongs to a
+     * query made with that last_sync_time.
+     *
+     * Must be called on the thread that owns database writes before download(...).
+     */
+    void loadCheckpoint() {
+        Long projectId = AppUtil.getProjectId();
+        mBaseSyncTime = SyncWatermark.getLastSyncTime(projectId, mRemoteTableName);
+        mPendingSyncTime = ActiveRecordCloudSync.getLastSyncTime();
+        mCursor = null;
+        SyncCheckpoint checkpoint = SyncCheckpoint.findByTableName(projectId, mRemoteTableName);
+        if (checkpoint != null &&
+                TextUtils.equals(checkpoint.getBaseSyncTime(), mBaseSyncTime)) {
+            mCursor = checkpoint.getCursor();
+            mPendingSyncTime = checkpoint.getPendingSyncTime();
+            if (BuildConfig.DEBUG) Log.i(TAG, "Resuming " + mRemoteTableName + " at " + mCursor);
+        } else if (checkpoint != null) {
+            SyncCheckpoint.clear(projectId, mRemoteTableName);
+        }
+        // A 304 is only trusted while the rows it vouches for are still in the database,
+        // i.e. the table has a watermark.
+        mValidator = null;
+        if (mCursor == null && !TextUtils.isEmpty(mBaseSyncTime) &&
+                !TextUtils.isEmpty(ActiveRecordCloudSync.getEndPoint())) {
+            mValidator = HttpValidator.findByUrl(getUrl());
+        }
     }
 
+    /*
+     * Download and apply the remote table page by page on the calling thread.
+     */
     public void fetch() {
+        loadCheckpoint();
+        download(AppUtil.getContext().getCacheDir(), new PageListener() {
+            @Override
+            public void onPage(Page page) {
+                apply(page);
+            }
+        });
+    }
+
+    /*
+     * Stream each page of the remote table into a temporary file in directory without
+     * touching the database, handing pages to listener in order. The last page handed over
+     * either has no next cursor or is marked as failed.
+     */
+    void download(File directory, PageListener listener) {
+        String cursor = mCursor;
+        while (!mCancelled) {
+            Page page = downloadPage(directory, cursor);
+            listener.onPage(page);
+            if (page.isLast()) return;
+            cursor = page.mNextCursor;
+        }
+    }
+
+    /*
+     * Stop requesting further pages, e.g. after a page failed to apply.
+     */
+    void cancel() {
+        mCancelled = true;
+    }
+
+    private Page downloadPage(File directory, String cursor) {
         if (TextUtils.isEmpty(ActiveRecordCloudSync.getEndPoint())) {
             if (BuildConfig.DEBUG) Log.i(TAG, "ActiveRecordCloudSync end point is not set!");
-            return;
+            return new Page(this, null, null);
         }
 
+        Response response = null;
+        File file = null;
+        OutputStream out = null;
+        long start = System.currentTimeMillis();
         try {
-            String url;
-            if (mRemoteTableName.equals("projects")) {
-                url = ActiveRecordCloudSync.getProjectsEndPoint() + ActiveRecordCloudSync.getParams();
-            } else {
-                url = ActiveRecordCloudSync.getEndPoint() + mRemoteTableName + ActiveRecordCloudSync.getParams();
+            response = requestPage(cursor);
+            if (!mFirstByteRecorded) {
+                mStat.setFirstByteMillis(System.currentTimeMillis() - start);
+                mFirstByteRecorded = true;
             }
-            String jsonString = getUrl(url);
-            JSONArray jsonArray = new JSONArray(jsonString);
-
-            ActiveAndroid.beginTransaction();
-            try {
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    ReceiveModel tableInstance = mReceiveTableClass.newInstance();
-                    tableInstance.createObjectFromJSON(jsonArray.getJSONObject(i));
-                }
-                ActiveAndroid.setTransactionSuccessful();
-            } finally {
-                ActiveAndroid.endTransaction();
+            if (response == null) return new Page(this, null, null);
+            if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                if (BuildConfig.DEBUG) Log.i(TAG, mRemoteTableName + " not modified");
+                return new Page(this, null, null, true);
             }
-
+            if (cursor == null) {
+                mETag = response.header("ETag");
+                mLastModified = response.header("Last-Modified");
+            }
+            file = File.createTempFile(mRemoteTableName, ".json", directory);
+            out = new FileOutputStream(file);
+            InputStream in = TransportCompression.getInputStream(response);
+            int bytesRead;
+            byte[] buffer = new byte[8192];
+            long bytes = 0;
+            while ((bytesRead = in.read(buffer)) > 0) {
+                out.write(buffer, 0, bytesRead);
+                bytes += bytesRead;
+            }
+            out.close();
+            out = null;
+            mStat.addBytes(bytes);
+            String nextCursor = response.header(NEXT_CURSOR_HEADER);
+            if (TextUtils.isEmpty(nextCursor)) nextCursor = null;
+            Page page = new Page(this, file, nextCursor);
+            // The page owns its file from here on
+            file = null;
+            return page;
         } catch (ConnectException cre) {
             Log.e(TAG, "Connection was refused", cre);
         } catch (IOException ioe) {
             Log.e(TAG, "Failed to fetch items", ioe);
+        } catch (NullPointerException npe) {
+            Log.e(TAG, "Url is null", npe);
+        } catch (IllegalArgumentException iae) {
+            Log.e(TAG, "Url is invalid", iae);
+        } finally {
+            closeQuietly(out);
+            closeQuietly(response);
+            if (file != null && !file.delete() && BuildConfig.DEBUG) {
+                Log.i(TAG, "Unable to delete " + file);
+            }
+            mStat.addTransferMillis(System.currentTimeMillis() - start);
+        }
+        return new Page(this, null, null);
+    }
+
+    /*
+     * Apply a page previously saved by download(...) and checkpoint the cursor of the page
+     * after it. Must only be called, in page order, from the thread that owns database writes
+     * for the current sync. Returns false if the page could not be applied.
+     */
+    boolean apply(Page page) {
+        boolean applied = false;
+        InputStream in = null;
+        try {
+            if (page.mNotModified) {
+                advanceWatermark();
+                applied = true;
+                return true;
+            }
+            if (page.mFile == null) return false;
+            in = new BufferedInputStream(new FileInputStream(page.mFile));
+            int count = readStream(in);
+            if (page.mNextCursor == null) {
+                SyncCheckpoint.clear(AppUtil.getProjectId(), mRemoteTableName);
+                advanceWatermark();
+                // Validators of a resumed download belong to a response this sync never saw
+                if (mCursor == null) HttpValidator.save(getUrl(), mETag, mLastModified);
+            } else {
+                SyncCheckpoint.save(AppUtil.getProjectId(), mRemoteTableName, page.mNextCursor,
+                        mBaseSyncTime, mPendingSyncTime);
+            }
+            if (BuildConfig.DEBUG) Log.i(TAG, "Applied " + count + " rows for " + mRemoteTableName);
+            applied = true;
+            return true;
+        } catch (IOException ioe) {
+            Log.e(TAG, "Failed to read items", ioe);
+        } catch (IllegalStateException ise) {
+            Log.e(TAG, "Failed to parse items", ise);
         } catch (JSONException je) {
             Log.e(TAG, "Failed to parse items", je);
         } catch (InstantiationException ie) {
             Log.e(TAG, "Failed to instantiate receive table", ie);
         } catch (IllegalAccessException iae) {
             Log.e(TAG, "Failed to access receive table", iae);
-        } catch (NullPointerException npe) {
-            Log.e(TAG, "Url is null", npe);
+        } finally {
+            closeQuietly(in);
+            page.discard();
+            if (!applied || page.isLast()) {
+                mStat.setSucceeded(applied);
+                mStat.record();
+            }
         }
+        return false;
+    }
+
+    String getRemoteTableName() {
+        return mRemoteTableName;
     }
 
-    public String getUrl(String urlSpec) throws IOException {
-        return new String(getUrlBytes(urlSpec));
+    /*
+     * Url of the remote table without its query string.
+     */
+    private String getUrl() {
+        if (mRemoteTableName.equals("projects")) {
+            return ActiveRecordCloudSync.getProjectsEndPoint();
+        } else {
+            return ActiveRecordCloudSync.getEndPoint() + mRemoteTableName;
+        }
     }
 
-    private byte[] getUrlBytes(String urlSpec) throws IOException {
-        URL url = new URL(urlSpec);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    private Response requestPage(String cursor) throws IOException {
+        String url = getUrl() + ActiveRecordCloudSync.getTableParams(mBaseSyncTime) +
+                "&page_size=" + PAGE_SIZE;
+        if (cursor != null) {
+            url = url + "&cursor=" + URLEncoder.encode(cursor, "UTF-8");
+        }
+        Request.Builder builder = new Request.Builder().url(url);
+        TransportCompression.acceptCompressed(builder);
+        if (cursor == null) HttpUtil.setValidatorHeaders(builder, mValidator);
+        Response response = AppUtil.getOkHttpClient().newCall(builder.build()).execute();
+        int responseCode = response.code();
+        if (responseCode != HttpURLConnection.HTTP_OK &&
+                responseCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
+            if (BuildConfig.DEBUG) Log.i(TAG, "Received HTTP code " +
+                    responseCode + " for " + mRemoteTableName);
+            response.close();
+            return null;
+        }
+        return response;
+    }
 
+    /*
+     * Pull one JSON object at a time off the stream and hand it to the receive table.
+     * Rows are committed every BATCH_SIZE objects so that neither the response body nor
+     * an unbounded transaction is held in memory. Receive tables that upsert() share one
+     * BulkUpsert session for the whole page. Returns the number of rows read.
+     */
+    int readStream(InputStream in) throws IOException, JSONException,
+            InstantiationException, IllegalAccessException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        int count = 0;
+        long start = System.currentTimeMillis();
+        long parseNanos = 0;
+        long commitNanos = 0;
         try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            InputStream in = connection.getInputStream();
-
-            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                return null;
+            reader.beginArray();
+            BulkUpsert.begin();
+            DatabaseConfig.beginTransaction();
+            try {
+                while (reader.hasNext()) {
+                    ReceiveModel tableInstance = mReceiveTableClass.newInstance();
+                    long parseStart = System.nanoTime();
+                    JSONObject jsonObject = JsonStreamReader.readObject(reader);
+                    parseNanos += System.nanoTime() - parseStart;
+                    tableInstance.createObjectFromJSON(jsonObject);
+                    count++;
+                    if (count % BATCH_SIZE == 0) {
+                        long commitStart = System.nanoTime();
+                        ActiveAndroid.setTransactionSuccessful();
+                        ActiveAndroid.endTransaction();
+                        commitNanos += System.nanoTime() - commitStart;
+                        DatabaseConfig.beginTransaction();
+                    }
+                }
+                ActiveAndroid.setTransactionSuccessful();
+            } finally {
+                long commitStart = System.nanoTime();
+                ActiveAndroid.endTransaction();
+                commitNanos += System.nanoTime() - commitStart;
+                BulkUpsert.end();
+                mStat.addRows(count);
+                mStat.addParseMillis(parseNanos / 1000000);
+                mStat.addCommitMillis(commitNanos / 1000000);
             }
+            reader.endArray();
+        } finally {
+            reader.close();
+        }
+        BulkUpsert.logThroughput(mRemoteTableName, count, System.currentTimeMillis() - start);
+        return count;
+    }
 
-            int bytesRead = 0;
-            byte[] buffer = new byte[1024];
-            while ((bytesRead = in.read(buffer)) > 0) {
-                out.write(buffer, 0, bytesRead);
+    /*
+     * Only called once every row of the table has been committed.
+     */
+    private void advanceWatermark() {
+        if (mPendingSyncTime == null) return;
+        SyncWatermark.setLastSyncTime(AppUtil.getProjectId(), mRemoteTableName, mPendingSyncTime);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "IOException ", e);
+        }
+    }
+
+    interface PageListener {
+        void onPage(Page page);
+    }
+
+    /*
+     * One downloaded page of a remote table. A page without a file either reports that the
+     * table is not modified or failed to download; both end the table for this sync, the
+     * latter leaving the last committed checkpoint in place.
+     */
+    static class Page {
+        private final HttpFetchr mFetchr;
+        private final File mFile;
+        private final String mNextCursor;
+        private final boolean mNotModified;
+
+        Page(HttpFetchr fetchr, File file, String nextCursor) {
+            this(fetchr, file, nextCursor, false);
+        }
+
+        private Page(HttpFetchr fetchr, File file, String nextCursor, boolean notModified) {
+            mFetchr = fetchr;
+            mFile = file;
+            mNextCursor = nextCursor;
+            mNotModified = notModified;
+        }
+
+        HttpFetchr getFetchr() {
+            return mFetchr;
+        }
+
+        boolean isLast() {
+            return mFile == null || mNextCursor == null;
+        }
+
+        void discard() {
+            if (mFile != null && !mFile.delete() && BuildConfig.DEBUG) {
+                Log.i(TAG, "Unable to delete " + mFile);
             }
-            out.close();
-            return out.toByteArray();
-        } finally {
-            connection.disconnect();
         }
     }
 
@@ -1,46 +1,41 @@
 package org.adaptlab.chpir.android.activerecordcloudsync;
 
-import android.content.Context;
 import android.util.Log;
 
 import org.adaptlab.chpir.android.survey.BuildConfig;
-import org.adaptlab.chpir.android.survey.models.Image;
+import org.adaptlab.chpir.android.survey.models.HttpValidator;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.apache.commons.codec.CharEncoding;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.UUID;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
 
 public class HttpUtil {
     private static final String TAG = "HttpUtil";
     private static final int TIMEOUT = 10000;
+    public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    public static final MediaType JPEG = MediaType.parse("image/jpeg");
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
 
     public static void postData(SendModel element, String tableName) {
         if (!element.isSent() && element.readyToSend()) {
-            HttpURLConnection connection = null;
             String endPoint = ActiveRecordCloudSync.getEndPoint() + tableName +
                     ActiveRecordCloudSync.getParams();
+            Response response = null;
             try {
-                connection = (HttpURLConnection) new URL(endPoint).openConnection();
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", "application/json");
-                connection.setRequestProperty("Accept", "application/json");
-                connection.setConnectTimeout(TIMEOUT);
-                connection.setReadTimeout(TIMEOUT);
-                connection.setDoOutput(true);
-
-                byte[] outputInBytes = element.toJSON().toString().getBytes(CharEncoding.UTF_8);
-                OutputStream outputStream = connection.getOutputStream();
-                outputStream.write(outputInBytes);
-                outputStream.close();
-
-                int responseCode = connection.getResponseCode();
+                Request request = jsonPost(endPoint,
+                        element.toJSON().toString().getBytes(CharEncoding.UTF_8));
+                response = getClient(TIMEOUT).newCall(request).execute();
+                int responseCode = response.code();
                 if (responseCode >= 200 && responseCode < 300) {
                     if (AppUtil.DEBUG) Log.i(TAG, "Received OK HTTP code for " +
                             element.toJSON());
@@ -52,59 +47,68 @@ public class HttpUtil {
             } catch (IOException e) {
                 e.printStackTrace();
             } finally {
-                if (connection != null) {
-                    connection.disconnect();
+                if (response != null) {
+                    response.close();
                 }
             }
         }
     }
 
-    public static void getFile(Image image) {
-        String[] imageUrl = image.getPhotoUrl().split("/");
-        String url = ActiveRecordCloudSync.getEndPoint() + "images/" + imageUrl[2] + "/"
-                + ActiveRecordCloudSync.getParams();
-        if (BuildConfig.DEBUG) Log.i(TAG, "Image url: " + url);
-        String filename = UUID.randomUUID().toString() + ".jpg";
-        FileOutputStream fileWriter = null;
-        try {
-            byte[] imageBytes = getUrlBytes(url);
-            if (imageBytes != null) {
-                fileWriter = AppUtil.getContext().openFileOutput(filename, Context.MODE_PRIVATE);
-                fileWriter.write(imageBytes);
-                image.setBitmapPath(filename);
-                image.save();
-            }
-            if (BuildConfig.DEBUG) Log.i(TAG, "Image saved in " + filename);
-        } catch (IOException e) {
-            if (BuildConfig.DEBUG) Log.e(TAG, "IOException ", e);
-        } finally {
-            try {
-                if (fileWriter != null) {
-                    fileWriter.close();
-                }
-            } catch (Exception e) {
-                if (BuildConfig.DEBUG) Log.e(TAG, "Exception ", e);
-            }
+    /*
+     * A POST of a JSON body to url, gzipped when transport compression is enabled.
+     */
+    public static Request jsonPost(String url, byte[] json) {
+        return jsonPost(url, json, null);
+    }
+
+    /*
+     * A JSON POST that the remote can recognize as a retry by its idempotencyKey.
+     */
+    public static Request jsonPost(String url, byte[] json, String idempotencyKey) {
+        Request.Builder builder = new Request.Builder().url(url)
+                .header("Accept", "application/json");
+        if (idempotencyKey != null) builder.header(IDEMPOTENCY_KEY, idempotencyKey);
+        return builder.post(TransportCompression.createBody(builder, JSON, json)).build();
+    }
+
+    /*
+     * A multipart form POST of fields followed by file, which is streamed from disk as it is
+     * written so its size does not matter.
+     */
+    public static Request multipartPost(String url, Map<String, String> fields, String fileField,
+                                        File file, MediaType fileType, String idempotencyKey) {
+        MultipartBody.Builder body = new MultipartBody.Builder().setType(MultipartBody.FORM);
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            body.addFormDataPart(field.getKey(), field.getValue());
         }
+        body.addFormDataPart(fileField, file.getName(), RequestBody.create(fileType, file));
+        Request.Builder builder = new Request.Builder().url(url)
+                .header("Accept", "application/json");
+        if (idempotencyKey != null) builder.header(IDEMPOTENCY_KEY, idempotencyKey);
+        return builder.post(body.build()).build();
     }
 
-    private static byte[] getUrlBytes(String urlSpec) throws IOException {
-        URL url = new URL(urlSpec);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    /*
+     * The shared client with its connect and read timeouts set to timeoutMillis. It keeps
+     * using the shared connection pool.
+     */
+    public static OkHttpClient getClient(int timeoutMillis) {
+        return AppUtil.getOkHttpClient().newBuilder()
+                .connectTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
 
-        try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) return null;
-            InputStream in = connection.getInputStream();
-            int bytesRead = 0;
-            byte[] buffer = new byte[1024];
-            while ((bytesRead = in.read(buffer)) > 0) {
-                out.write(buffer, 0, bytesRead);
-            }
-            out.close();
-            return out.toByteArray();
-        } finally {
-            connection.disconnect();
+    /*
+     * Ask the remote to answer 304 if the resource is unchanged since validator was stored.
+     */
+    static void setValidatorHeaders(Request.Builder builder, HttpValidator validator) {
+        if (validator == null) return;
+        if (validator.getETag() != null) {
+            builder.header("If-None-Match", validator.getETag());
+        }
+        if (validator.getLastModified() != null) {
+            builder.header("If-Modified-Since", validator.getLastModified());
         }
     }
 
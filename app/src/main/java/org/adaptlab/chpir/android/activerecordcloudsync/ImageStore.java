@@ -0,0 +1,296 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.adaptlab.chpir.android.survey.BuildConfig;
+import org.adaptlab.chpir.android.survey.R;
+import org.adaptlab.chpir.android.survey.models.Image;
+import org.adaptlab.chpir.android.survey.utils.AppUtil;
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/*
+ * Question images, stored in the app's files directory under the SHA-256 of their content.
+ *
+ * An image is only downloaded again when its photo url changes or its file no longer
+ * matches its checksum, so a sync of unchanged images moves no image bytes. Identical
+ * images share a file, and files that no image refers to any more are evicted.
+ *
+ * Images are downloaded on a bounded pool, each streamed to a temporary file that is
+ * renamed once complete. Images are saved on the calling thread as their downloads finish.
+ */
+public class ImageStore {
+    private static final String TAG = "ImageStore";
+    private static final String PREFIX = "img-";
+    private static final String SUFFIX = ".jpg";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAX_CONCURRENT_DOWNLOADS = 4;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+    /*
+     * Download every image that is not already stored intact, showing progress in the
+     * download notification.
+     */
+    public static void fetchAll(Context context, List<Image> images) {
+        ExecutorService pool = Executors.newFixedThreadPool(MAX_CONCURRENT_DOWNLOADS);
+        CompletionService<Download> downloads = new ExecutorCompletionService<>(pool);
+        try {
+            for (final Image image : images) {
+                downloads.submit(new Callable<Download>() {
+                    @Override
+                    public Download call() throws InterruptedException {
+                        return isStored(image) ? null : download(image);
+                    }
+                });
+            }
+            long lastProgress = 0;
+            for (int done = 1; done <= images.size(); done++) {
+                Download download = null;
+                try {
+                    download = downloads.take().get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Image download failed", e.getCause());
+                }
+                if (download != null) download.apply();
+                long now = System.currentTimeMillis();
+                if (now - lastProgress >= PROGRESS_INTERVAL_MILLIS || done == images.size()) {
+                    lastProgress = now;
+                    ActiveRecordCloudSync.downloadNotification(context,
+                            android.R.drawable.stat_sys_download, context.getString(
+                                    R.string.image_download_progress, done, images.size()));
+                }
+            }
+        } catch (InterruptedException ie) {
+            Log.e(TAG, "Interrupted while waiting for image downloads", ie);
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    static boolean isStored(Image image) {
+        if (image.getBitmapPath() == null || image.getChecksum() == null) return false;
+        if (!TextUtils.equals(image.getPhotoUrl(), image.getStoredPhotoUrl())) return false;
+        File file = new File(getDirectory(), image.getBitmapPath());
+        if (!file.isFile()) return false;
+        try {
+            return image.getChecksum().equals(checksum(file));
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "Unable to verify " + file, e);
+            return false;
+        }
+    }
+
+    /*
+     * Try to download image up to MAX_ATTEMPTS times, doubling the wait after each failure
+     * that may be temporary. Returns null if the image could not be downloaded.
+     */
+    private static Download download(Image image) throws InterruptedException {
+        String[] imageUrl = image.getPhotoUrl().split("/");
+        String url = ActiveRecordCloudSync.getEndPoint() + "images/" + imageUrl[2] + "/"
+                + ActiveRecordCloudSync.getParams();
+        long backoffMillis = INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return download(image, url);
+            } catch (RetryableException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    if (BuildConfig.DEBUG) Log.e(TAG, "Giving up on " + url, e);
+                    return null;
+                }
+                if (BuildConfig.DEBUG) Log.i(TAG, "Retrying " + url + " in " + backoffMillis +
+                        " ms: " + e.getMessage());
+                Thread.sleep(backoffMillis);
+                backoffMillis *= 2;
+            }
+        }
+    }
+
+    private static Download download(Image image, String url) throws RetryableException {
+        if (BuildConfig.DEBUG) Log.i(TAG, "Image url: " + url);
+        Response response = null;
+        File temp = null;
+        OutputStream out = null;
+        try {
+            Request.Builder builder = new Request.Builder().url(url);
+            TransportCompression.acceptCompressed(builder);
+            response = AppUtil.getOkHttpClient().newCall(builder.build()).execute();
+            if (response.code() != HttpURLConnection.HTTP_OK) {
+                if (response.code() >= 500 || response.code() == 429) {
+                    throw new RetryableException("Received HTTP code " + response.code());
+                }
+                if (BuildConfig.DEBUG) Log.i(TAG, "Received HTTP code " + response.code() +
+                        " for " + url);
+                return null;
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            InputStream in = new DigestInputStream(TransportCompression.getInputStream(response),
+                    digest);
+            temp = File.createTempFile(PREFIX, TEMP_SUFFIX, getDirectory());
+            out = new FileOutputStream(temp);
+            int bytesRead;
+            byte[] buffer = new byte[8192];
+            while ((bytesRead = in.read(buffer)) > 0) {
+                out.write(buffer, 0, bytesRead);
+            }
+            out.close();
+            out = null;
+
+            String checksum = Hex.encodeHexString(digest.digest());
+            String filename = PREFIX + checksum + SUFFIX;
+            File file = new File(getDirectory(), filename);
+            // Another image may already have stored the same content
+            if (!file.isFile() || !checksum.equals(checksum(file))) {
+                if (!temp.renameTo(file)) throw new IOException("Unable to store " + file);
+                temp = null;
+            }
+            return new Download(image, filename, checksum);
+        } catch (IOException e) {
+            throw new RetryableException(e);
+        } catch (NoSuchAlgorithmException e) {
+            Log.e(TAG, "SHA-256 is not available", e);
+            return null;
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Url is invalid", e);
+            return null;
+        } finally {
+            closeQuietly(out);
+            closeQuietly(response);
+            if (temp != null && !temp.delete() && BuildConfig.DEBUG) {
+                Log.i(TAG, "Unable to delete " + temp);
+            }
+        }
+    }
+
+    /*
+     * Delete stored files, and leftover temporary files, that no image refers to. Only files
+     * named by this store are considered; response photos share the directory.
+     */
+    public static void evictUnreferenced() {
+        Set<String> referenced = new HashSet<>();
+        for (Image image : Image.getAll()) {
+            if (image.getBitmapPath() != null) referenced.add(image.getBitmapPath());
+        }
+        File[] files = getDirectory().listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(PREFIX) || referenced.contains(name)) continue;
+            if (name.endsWith(SUFFIX) || name.endsWith(TEMP_SUFFIX)) {
+                if (file.delete()) {
+                    if (BuildConfig.DEBUG) Log.i(TAG, "Evicted " + name);
+                } else if (BuildConfig.DEBUG) {
+                    Log.i(TAG, "Unable to evict " + name);
+                }
+            }
+        }
+    }
+
+    /*
+     * Images downloaded before this store existed were saved under random names. Their file
+     * is dropped once the image has been stored again.
+     */
+    private static void deleteUnmanagedFile(String filename) {
+        if (filename == null || filename.startsWith(PREFIX)) return;
+        File file = new File(getDirectory(), filename);
+        if (file.isFile() && !file.delete() && BuildConfig.DEBUG) {
+            Log.i(TAG, "Unable to delete " + file);
+        }
+    }
+
+    static String checksum(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            int bytesRead;
+            byte[] buffer = new byte[8192];
+            while ((bytesRead = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, bytesRead);
+            }
+        } finally {
+            in.close();
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    private static File getDirectory() {
+        return AppUtil.getContext().getFilesDir();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "IOException ", e);
+        }
+    }
+
+    /*
+     * A stored image file, saved to its image on the calling thread.
+     */
+    private static class Download {
+        private final Image mImage;
+        private final String mFilename;
+        private final String mChecksum;
+
+        Download(Image image, String filename, String checksum) {
+            mImage = image;
+            mFilename = filename;
+            mChecksum = checksum;
+        }
+
+        void apply() {
+            String previousPath = mImage.getBitmapPath();
+            mImage.setBitmapPath(mFilename);
+            mImage.setChecksum(mChecksum);
+            mImage.setStoredPhotoUrl(mImage.getPhotoUrl());
+            mImage.save();
+            deleteUnmanagedFile(previousPath);
+            if (BuildConfig.DEBUG) Log.i(TAG, "Image saved in " + mFilename);
+        }
+    }
+
+    private static class RetryableException extends Exception {
+        RetryableException(String message) {
+            super(message);
+        }
+
+        RetryableException(Throwable cause) {
+            super(cause);
+        }
+    }
+}
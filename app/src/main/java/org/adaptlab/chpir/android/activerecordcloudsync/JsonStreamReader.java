@@ -0,0 +1,73 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import android.util.JsonReader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/*
+ * Materializes one element of a streamed JSON document at a time so that receive tables
+ * can be consumed from the network without holding the whole body in memory.
+ *
+ * Values are converted to the same types org.json would produce so that existing
+ * ReceiveModel.createObjectFromJSON implementations are unaffected.
+ */
+class JsonStreamReader {
+
+    static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+        JSONObject jsonObject = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            jsonObject.put(name, readValue(reader));
+        }
+        reader.endObject();
+        return jsonObject;
+    }
+
+    private static JSONArray readArray(JsonReader reader) throws IOException, JSONException {
+        JSONArray jsonArray = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            jsonArray.put(readValue(reader));
+        }
+        reader.endArray();
+        return jsonArray;
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                return readArray(reader);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NUMBER:
+                return parseNumber(reader.nextString());
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    private static Object parseNumber(String number) {
+        if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+            try {
+                long value = Long.parseLong(number);
+                if (value <= Integer.MAX_VALUE && value >= Integer.MIN_VALUE) {
+                    return (int) value;
+                }
+                return value;
+            } catch (NumberFormatException nfe) {
+                // Fall through to double
+            }
+        }
+        return Double.valueOf(number);
+    }
+}
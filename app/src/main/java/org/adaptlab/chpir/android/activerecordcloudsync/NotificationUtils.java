@@ -81,7 +81,7 @@ public class NotificationUtils {
      * Check if Network is available on device.
      */
     @SuppressWarnings("deprecation")
-    private static boolean isNetworkAvailable(Context context) {
+    public static boolean isNetworkAvailable(Context context) {
         ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         return cm.getBackgroundDataSetting() && cm.getActiveNetworkInfo() != null;
     }
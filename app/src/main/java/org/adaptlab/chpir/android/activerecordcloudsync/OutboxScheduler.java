@@ -0,0 +1,125 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.util.Log;
+
+import com.activeandroid.ActiveAndroid;
+
+import org.adaptlab.chpir.android.survey.BuildConfig;
+import org.adaptlab.chpir.android.survey.models.OutboxEntry;
+
+import java.util.List;
+
+/*
+ * Wakes PollService when the outbox next has an entry due, and as soon as the network comes
+ * back while entries are waiting, so unsent data does not wait for the daily poll. Deferred
+ * entries are released once the network is unmetered or the device is plugged in.
+ */
+public class OutboxScheduler {
+    private static final String TAG = "OutboxScheduler";
+    private static final int REQUEST_CODE = 1;
+    private static final long OFFLINE_RECHECK_MILLIS = 15 * 60 * 1000;
+    private static ConnectivityReceiver sConnectivityReceiver;
+
+    /*
+     * Set the outbox alarm for the entry that is due first, or cancel it if the outbox is
+     * empty. Without a network the alarm only rechecks every OFFLINE_RECHECK_MILLIS since the
+     * connectivity receiver drains the outbox once the network returns.
+     */
+    public static void schedule(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pi = PendingIntent.getService(context, REQUEST_CODE,
+                new Intent(context, PollService.class), 0);
+        OutboxEntry next = OutboxEntry.getNext();
+        if (next == null) {
+            alarmManager.cancel(pi);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long triggerAt = Math.max(next.getNextAttemptAt(), now);
+        if (!NotificationUtils.isNetworkAvailable(context)) {
+            triggerAt = Math.max(triggerAt, now + OFFLINE_RECHECK_MILLIS);
+        }
+        alarmManager.set(AlarmManager.RTC, triggerAt, pi);
+        if (BuildConfig.DEBUG) Log.i(TAG, "Next outbox attempt in " + (triggerAt - now) + " ms");
+    }
+
+    /*
+     * Called when the network is up but the remote could not be reached, so that due
+     * entries back off instead of being retried immediately. Only an entry still in flight
+     * from a lost attempt uses up an attempt; the others were not attempted.
+     */
+    public static void deferDue(Context context, String error) {
+        if (NotificationUtils.isNetworkAvailable(context)) {
+            List<OutboxEntry> due = OutboxEntry.getDue(System.currentTimeMillis());
+            ActiveAndroid.beginTransaction();
+            try {
+                for (OutboxEntry entry : due) {
+                    if (OutboxEntry.IN_FLIGHT.equals(entry.getState())) {
+                        entry.fail(error);
+                    } else {
+                        entry.postpone(error);
+                    }
+                }
+                ActiveAndroid.setTransactionSuccessful();
+            } finally {
+                ActiveAndroid.endTransaction();
+            }
+        }
+        schedule(context);
+    }
+
+    /*
+     * Listen for connectivity changes for as long as the process lives. Receivers declared in
+     * the manifest no longer receive CONNECTIVITY_ACTION on Android 7.0 and above.
+     */
+    public static synchronized void register(Context context) {
+        if (sConnectivityReceiver != null) return;
+        sConnectivityReceiver = new ConnectivityReceiver();
+        IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        context.getApplicationContext().registerReceiver(sConnectivityReceiver, filter);
+    }
+
+    /*
+     * Reads and writes the outbox on a background thread, since onReceive() runs on the
+     * main thread.
+     */
+    private static class ConnectivityReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (isInitialStickyBroadcast()) return;
+            if (!NotificationUtils.isNetworkAvailable(context)) return;
+            final Context appContext = context.getApplicationContext();
+            final PendingResult result = goAsync();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        drainOutbox(appContext);
+                    } finally {
+                        result.finish();
+                    }
+                }
+            }, TAG).start();
+        }
+
+        private void drainOutbox(Context context) {
+            if (OutboxEntry.getCount() == 0) return;
+            if (UploadPolicy.isUnmeteredOrCharging(context)) OutboxEntry.releaseDeferred();
+            if (BuildConfig.DEBUG) Log.i(TAG, "Network available, draining outbox");
+            try {
+                context.startService(new Intent(context, PollService.class));
+            } catch (IllegalStateException e) {
+                // Background services cannot be started while the app is idle on Android 8.0
+                Log.e(TAG, "Unable to start PollService", e);
+            }
+        }
+    }
+}
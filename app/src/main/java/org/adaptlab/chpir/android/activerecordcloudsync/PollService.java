@@ -21,6 +21,8 @@ public class PollService extends IntentService {
     protected void onHandleIntent(Intent intent) {
         if (NotificationUtils.checkForNetworkErrors(getApplicationContext())) {
             new SubmitSurveyTask(getApplicationContext()).execute();
+        } else {
+            OutboxScheduler.deferDue(getApplicationContext(), "Remote unavailable");
         }
     }
 
@@ -5,5 +5,22 @@ import org.json.JSONObject;
 import com.activeandroid.Model;
 
 public abstract class ReceiveModel extends Model {
+    private static final String[] NO_LOCAL_COLUMNS = new String[0];
+
     public abstract void createObjectFromJSON(JSONObject jsonObject);
+
+    /*
+     * Insert this row, or overwrite the row with the same RemoteId, without loading it first.
+     * Columns returned by localColumns() keep their current value when the row exists.
+     */
+    protected void upsert() {
+        BulkUpsert.upsert(this);
+    }
+
+    /*
+     * Columns maintained on the device rather than received from the remote.
+     */
+    public String[] localColumns() {
+        return NO_LOCAL_COLUMNS;
+    }
 }
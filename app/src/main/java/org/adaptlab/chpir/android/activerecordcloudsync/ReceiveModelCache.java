@@ -0,0 +1,118 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import com.activeandroid.Model;
+import com.activeandroid.query.From;
+
+import org.adaptlab.chpir.android.survey.BuildConfig;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Process-wide identity map for the finders of read-mostly receive models, such as
+ * Instrument.findByRemoteId(...), so that lookups repeated in loops are answered without a
+ * query. Records are kept by model class and key, usually the RemoteId, and the least
+ * recently used ones are evicted beyond MAX_ENTRIES.
+ *
+ * Each model class has a version, and a record is only returned while it was cached under
+ * the current version of its class. SyncScheduler calls invalidate(...) once it has written a
+ * remote table, which drops every cached record of that table at once. Only records that were
+ * found are cached, so a record inserted later is found by the next lookup.
+ */
+public class ReceiveModelCache {
+    private static final String TAG = "ReceiveModelCache";
+    private static final int MAX_ENTRIES = 2048;
+    private static final LruCache<Key, Entry> sEntries = new LruCache<>(MAX_ENTRIES);
+    private static final Map<Class<?>, Integer> sVersions = new HashMap<>();
+    private static final AtomicLong sHits = new AtomicLong();
+    private static final AtomicLong sMisses = new AtomicLong();
+
+    /*
+     * The cached record of type with key, or else the result of query, which is cached.
+     */
+    public static <T extends Model> T find(Class<T> type, Object key, From query) {
+        if (key == null) return query.executeSingle();
+        Key cacheKey = new Key(type, key);
+        // Read before the query so that a table written meanwhile leaves the result stale
+        int version = getVersion(type);
+        Entry entry = sEntries.get(cacheKey);
+        if (entry != null && entry.mVersion == version) {
+            sHits.incrementAndGet();
+            return type.cast(entry.mModel);
+        }
+        sMisses.incrementAndGet();
+        T model = query.executeSingle();
+        if (model != null) {
+            sEntries.put(cacheKey, new Entry(model, version));
+        } else if (entry != null) {
+            sEntries.remove(cacheKey);
+        }
+        return model;
+    }
+
+    /*
+     * Drop every cached record of type.
+     */
+    public static synchronized void invalidate(Class<?> type) {
+        sVersions.put(type, getVersion(type) + 1);
+    }
+
+    public static void clear() {
+        sEntries.evictAll();
+    }
+
+    private static synchronized int getVersion(Class<?> type) {
+        Integer version = sVersions.get(type);
+        return version == null ? 0 : version;
+    }
+
+    public static long getHits() {
+        return sHits.get();
+    }
+
+    public static long getMisses() {
+        return sMisses.get();
+    }
+
+    public static void logCounters() {
+        if (BuildConfig.DEBUG) Log.i(TAG, getHits() + " hits, " + getMisses() + " misses, " +
+                sEntries.size() + " of " + MAX_ENTRIES + " entries");
+    }
+
+    private static class Key {
+        private final Class<? extends Model> mType;
+        private final Object mKey;
+
+        Key(Class<? extends Model> type, Object key) {
+            mType = type;
+            mKey = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return mType.equals(other.mType) && mKey.equals(other.mKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mType.hashCode() + mKey.hashCode();
+        }
+    }
+
+    private static class Entry {
+        private final Model mModel;
+        private final int mVersion;
+
+        Entry(Model model, int version) {
+            mModel = model;
+            mVersion = version;
+        }
+    }
+}
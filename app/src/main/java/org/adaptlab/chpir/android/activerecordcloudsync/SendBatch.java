@@ -0,0 +1,151 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import com.activeandroid.ActiveAndroid;
+
+import org.adaptlab.chpir.android.survey.models.OutboxEntry;
+import org.adaptlab.chpir.android.survey.models.SurveySerializer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/*
+ * Outbox entries posted in one request as newline-delimited JSON, one toJSON() per line with
+ * the entry's idempotency key added. Each line is serialized by a SurveySerializer while the
+ * body is written so the whole batch is never held in memory.
+ *
+ * Batches are used when enabled with ActiveRecordCloudSync.setBatchUpload(...) until the
+ * remote answers that it has no batch endpoint.
+ */
+public class SendBatch {
+    public static final String REMOTE_TABLE = "batches";
+    private static final MediaType NDJSON = MediaType.parse("application/x-ndjson; charset=utf-8");
+    private static volatile boolean sUnsupported;
+
+    private final List<OutboxEntry> mEntries = new ArrayList<>();
+    private final List<SendModel> mElements = new ArrayList<>();
+    private volatile long mBytes;
+
+    public void add(OutboxEntry entry, SendModel element) {
+        mEntries.add(entry);
+        mElements.add(element);
+    }
+
+    public static boolean isEnabled() {
+        return ActiveRecordCloudSync.getBatchUpload() && !sUnsupported;
+    }
+
+    /*
+     * True if responseCode means the remote has no batch endpoint, in which case batches
+     * are not used again until the app restarts.
+     */
+    public static boolean isUnsupported(int responseCode) {
+        if (responseCode == HttpURLConnection.HTTP_NOT_FOUND ||
+                responseCode == HttpURLConnection.HTTP_BAD_METHOD) {
+            sUnsupported = true;
+        }
+        return sUnsupported;
+    }
+
+    /*
+     * Called on the writer thread, which also loads what the lines refer to.
+     */
+    public Request createRequest() {
+        SurveySerializer serializer = new SurveySerializer(mElements);
+        String url = ActiveRecordCloudSync.getEndPoint() + REMOTE_TABLE +
+                ActiveRecordCloudSync.getParams();
+        Request.Builder builder = new Request.Builder().url(url)
+                .header("Accept", "application/json")
+                .header(HttpUtil.IDEMPOTENCY_KEY, getIdempotencyKey());
+        return builder.post(TransportCompression.createStreamingBody(builder,
+                new Body(serializer))).build();
+    }
+
+    /*
+     * Derived from the keys of the entries, so a retry of the same entries has the same key.
+     */
+    private String getIdempotencyKey() {
+        StringBuilder keys = new StringBuilder();
+        for (OutboxEntry entry : mEntries) {
+            keys.append(entry.getIdempotencyKey());
+        }
+        return UUID.nameUUIDFromBytes(keys.toString().getBytes(Charset.forName("UTF-8")))
+                .toString();
+    }
+
+    public void startAttempt() {
+        ActiveAndroid.beginTransaction();
+        try {
+            for (OutboxEntry entry : mEntries) {
+                entry.startAttempt();
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+    }
+
+    public void fail(String error) {
+        ActiveAndroid.beginTransaction();
+        try {
+            for (OutboxEntry entry : mEntries) {
+                entry.fail(error);
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+    }
+
+    public List<OutboxEntry> getEntries() {
+        return mEntries;
+    }
+
+    public List<SendModel> getElements() {
+        return mElements;
+    }
+
+    public int size() {
+        return mElements.size();
+    }
+
+    /*
+     * Uncompressed size of the body the last time it was written.
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    private class Body extends RequestBody {
+        private final SurveySerializer mSerializer;
+
+        Body(SurveySerializer serializer) {
+            mSerializer = serializer;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return NDJSON;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            long bytes = 0;
+            for (int i = 0; i < mElements.size(); i++) {
+                byte[] line = mSerializer.toBytes(mElements.get(i),
+                        mEntries.get(i).getIdempotencyKey());
+                sink.write(line).writeByte('\n');
+                bytes += line.length + 1;
+            }
+            mBytes = bytes;
+        }
+    }
+}
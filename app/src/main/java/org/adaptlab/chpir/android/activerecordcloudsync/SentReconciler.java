@@ -0,0 +1,168 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.activeandroid.Cache;
+import com.activeandroid.Model;
+import com.activeandroid.content.ContentProvider;
+import com.activeandroid.query.Select;
+
+import org.adaptlab.chpir.android.survey.BuildConfig;
+import org.adaptlab.chpir.android.survey.models.OutboxEntry;
+import org.adaptlab.chpir.android.survey.models.Response;
+import org.adaptlab.chpir.android.survey.models.ResponsePhoto;
+import org.adaptlab.chpir.android.survey.models.Survey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Marks acknowledged records sent with a few set-based statements instead of a save(), a
+ * lookup and a delete() per record. Records are collected with add() and written by apply(),
+ * which the caller runs inside its transaction, to the same effect as their setAsSent():
+ *
+ *   Surveys         flagged SentToRemote, and their responses that the remote already holds
+ *                   as drafts are reconciled with them
+ *   Responses       deleted, or flagged SentToRemote while a photo still refers to them
+ *   ResponsePhotos  deleted along with their responses
+ *   OutboxEntries   deleted
+ *
+ * Other SendModels are still marked with their own setAsSent().
+ */
+public class SentReconciler {
+    private static final String TAG = "SentReconciler";
+    private static final int MAX_QUERY_VARIABLES = 500;
+
+    private final Context mContext;
+    private final Set<String> mSurveyUUIDs = new LinkedHashSet<>();
+    private final Set<String> mResponseUUIDs = new LinkedHashSet<>();
+    private final Set<Long> mPhotoIds = new LinkedHashSet<>();
+    private final Set<Long> mPhotoResponseIds = new LinkedHashSet<>();
+    private final Set<Long> mEntryIds = new LinkedHashSet<>();
+    private final List<Model> mDeleted = new ArrayList<>();
+    private final Set<Class<? extends Model>> mTables = new HashSet<>();
+
+    public SentReconciler(Context context) {
+        mContext = context;
+    }
+
+    /*
+     * element may be null, e.g. for a draft, whose record stays unsent and only has its
+     * outbox entry deleted.
+     */
+    public void add(OutboxEntry entry, SendModel element) {
+        if (entry != null) {
+            mEntryIds.add(entry.getId());
+            mDeleted.add(entry);
+            mTables.add(OutboxEntry.class);
+        }
+        if (element instanceof Survey) {
+            mSurveyUUIDs.add(((Survey) element).getUUID());
+            mTables.add(Survey.class);
+        } else if (element instanceof Response) {
+            mResponseUUIDs.add(((Response) element).getUUID());
+            mDeleted.add(element);
+            mTables.add(Response.class);
+        } else if (element instanceof ResponsePhoto) {
+            ResponsePhoto photo = (ResponsePhoto) element;
+            mPhotoIds.add(photo.getId());
+            mDeleted.add(photo);
+            if (photo.getResponse() != null) {
+                mPhotoResponseIds.add(photo.getResponse().getId());
+                mDeleted.add(photo.getResponse());
+                mTables.add(Response.class);
+            }
+            mTables.add(ResponsePhoto.class);
+        } else if (element != null) {
+            element.setAsSent(mContext);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mEntryIds.isEmpty() && mSurveyUUIDs.isEmpty() && mResponseUUIDs.isEmpty() &&
+                mPhotoIds.isEmpty();
+    }
+
+    /*
+     * Write everything added so far and return the number of rows reconciled.
+     */
+    public int apply() {
+        if (isEmpty()) return 0;
+        long start = System.currentTimeMillis();
+        SQLiteDatabase db = Cache.openDatabase();
+        addDraftedResponses();
+        int rows = mSurveyUUIDs.size() + mResponseUUIDs.size() + mPhotoIds.size();
+        execute(db, "UPDATE Surveys SET SentToRemote = 1 WHERE UUID IN ", mSurveyUUIDs);
+        execute(db, "DELETE FROM ResponsePhotos WHERE Id IN ", mPhotoIds);
+        execute(db, "DELETE FROM Responses WHERE Id IN ", mPhotoResponseIds);
+        // A response keeps its row while a photo that is not sent yet refers to it
+        execute(db, "UPDATE Responses SET SentToRemote = 1 WHERE UUID IN ", mResponseUUIDs);
+        execute(db, "DELETE FROM Responses WHERE Id NOT IN (SELECT Response FROM " +
+                "ResponsePhotos WHERE Response IS NOT NULL) AND UUID IN ", mResponseUUIDs);
+        execute(db, "DELETE FROM OutboxEntries WHERE Id IN ", mEntryIds);
+        for (Model model : mDeleted) {
+            Cache.removeEntity(model);
+        }
+        for (Class<? extends Model> table : mTables) {
+            Cache.getContext().getContentResolver().notifyChange(
+                    ContentProvider.createUri(table, null), null);
+        }
+        long millis = System.currentTimeMillis() - start;
+        if (BuildConfig.DEBUG) Log.i(TAG, "Reconciled " + rows + " records in " + millis +
+                " ms (" + (rows * 1000 / Math.max(1, millis)) + " records/s)");
+        clear();
+        return rows;
+    }
+
+    /*
+     * Responses posted as drafts are not uploaded with their survey, so they are sent once
+     * the survey is.
+     */
+    private void addDraftedResponses() {
+        List<String> surveyUUIDs = new ArrayList<>(mSurveyUUIDs);
+        for (int i = 0; i < surveyUUIDs.size(); i += MAX_QUERY_VARIABLES) {
+            List<String> uuids = surveyUUIDs.subList(i, Math.min(surveyUUIDs.size(),
+                    i + MAX_QUERY_VARIABLES));
+            List<Response> responses = new Select().from(Response.class)
+                    .where("DraftChecksum IS NOT NULL AND SurveyUUID IN " +
+                            placeholders(uuids.size()), uuids.toArray())
+                    .execute();
+            for (Response response : responses) {
+                if (response.isDraftSent()) {
+                    mResponseUUIDs.add(response.getUUID());
+                    mDeleted.add(response);
+                    mTables.add(Response.class);
+                }
+            }
+        }
+    }
+
+    private static void execute(SQLiteDatabase db, String sql, Set<?> values) {
+        List<Object> args = new ArrayList<Object>(values);
+        for (int i = 0; i < args.size(); i += MAX_QUERY_VARIABLES) {
+            List<Object> chunk = args.subList(i, Math.min(args.size(), i + MAX_QUERY_VARIABLES));
+            db.execSQL(sql + placeholders(chunk.size()), chunk.toArray());
+        }
+    }
+
+    private static String placeholders(int count) {
+        return "(" + TextUtils.join(", ", Collections.nCopies(count, "?")) + ")";
+    }
+
+    private void clear() {
+        mSurveyUUIDs.clear();
+        mResponseUUIDs.clear();
+        mPhotoIds.clear();
+        mPhotoResponseIds.clear();
+        mEntryIds.clear();
+        mDeleted.clear();
+        mTables.clear();
+    }
+}
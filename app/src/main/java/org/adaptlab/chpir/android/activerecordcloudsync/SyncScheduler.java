@@ -0,0 +1,207 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import android.util.Log;
+
+import org.adaptlab.chpir.android.survey.BuildConfig;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+ * Downloads receive tables concurrently on a bounded pool while applying them to the
+ * database one page at a time on the calling thread, which acts as the single DB writer.
+ *
+ * A table is only written once every table it depends on has been written, so a sync
+ * takes roughly as long as its slowest chain of dependent tables rather than the sum
+ * of every round trip. Pages of a table are written while its next page downloads.
+ *
+ * A table that fails to download or apply fails the tables that depend on it, directly or
+ * not, which are skipped without being written. Their watermarks therefore stay where they
+ * were, and the next sync downloads their rows again once their parents are in place.
+ */
+class SyncScheduler {
+    private static final String TAG = "SyncScheduler";
+    private static final int MAX_CONCURRENT_DOWNLOADS = 4;
+
+    private final Map<String, Class<? extends ReceiveModel>> mTables;
+    private final Map<String, List<String>> mDependencies;
+    private final File mCacheDir;
+    private final BlockingQueue<HttpFetchr.Page> mDownloaded = new LinkedBlockingQueue<>();
+    // Tables that failed, or were skipped because a table they depend on failed
+    private final Set<String> mFailed = new HashSet<>();
+    // Pages taken but waiting for their dependencies to be written
+    private final Map<String, Deque<HttpFetchr.Page>> mReady = new LinkedHashMap<>();
+    // Set under the lock of mDownloaded once run() stops taking pages
+    private boolean mClosed;
+
+    SyncScheduler(Map<String, Class<? extends ReceiveModel>> tables,
+                  Map<String, List<String>> dependencies, File cacheDir) {
+        mTables = tables;
+        mDependencies = dependencies;
+        mCacheDir = cacheDir;
+    }
+
+    void run() {
+        ExecutorService pool = Executors.newFixedThreadPool(MAX_CONCURRENT_DOWNLOADS);
+        try {
+            for (Map.Entry<String, Class<? extends ReceiveModel>> entry : mTables.entrySet()) {
+                final HttpFetchr fetchr = new HttpFetchr(entry.getKey(), entry.getValue());
+                fetchr.loadCheckpoint();
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            fetchr.download(mCacheDir, new HttpFetchr.PageListener() {
+                                @Override
+                                public void onPage(HttpFetchr.Page page) {
+                                    // A page that is never taken would leave its file behind
+                                    synchronized (mDownloaded) {
+                                        if (mClosed) {
+                                            page.discard();
+                                        } else {
+                                            mDownloaded.add(page);
+                                        }
+                                    }
+                                }
+                            });
+                        } catch (RuntimeException e) {
+                            Log.e(TAG, "Failed to download " + fetchr.getRemoteTableName(), e);
+                            mDownloaded.add(new HttpFetchr.Page(fetchr, null, null));
+                        }
+                    }
+                });
+            }
+            writeInDependencyOrder();
+        } catch (InterruptedException ie) {
+            Log.e(TAG, "Interrupted while waiting for downloads", ie);
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+            synchronized (mDownloaded) {
+                mClosed = true;
+                HttpFetchr.Page page;
+                while ((page = mDownloaded.poll()) != null) {
+                    page.discard();
+                }
+            }
+            for (Deque<HttpFetchr.Page> pages : mReady.values()) {
+                for (HttpFetchr.Page page : pages) {
+                    page.discard();
+                }
+            }
+        }
+    }
+
+    private void writeInDependencyOrder() throws InterruptedException {
+        Set<String> finished = new HashSet<>();
+        Set<String> downloaded = new HashSet<>();
+        Map<String, Deque<HttpFetchr.Page>> ready = mReady;
+        while (finished.size() < mTables.size()) {
+            HttpFetchr.Page page = mDownloaded.take();
+            String tableName = page.getFetchr().getRemoteTableName();
+            if (page.isLast() || finished.contains(tableName)) downloaded.add(tableName);
+            Deque<HttpFetchr.Page> pages = ready.get(tableName);
+            if (pages == null) {
+                pages = new ArrayDeque<>();
+                ready.put(tableName, pages);
+            }
+            pages.add(page);
+
+            boolean progress = true;
+            while (progress) {
+                progress = false;
+                for (Map.Entry<String, Deque<HttpFetchr.Page>> entry : ready.entrySet()) {
+                    if (!entry.getValue().isEmpty() && !finished.contains(entry.getKey()) &&
+                            dependencyFailed(entry.getKey())) {
+                        skipPages(entry.getValue(), finished);
+                        progress = true;
+                    } else if (!entry.getValue().isEmpty() &&
+                            dependenciesFinished(entry.getKey(), finished)) {
+                        applyPages(entry.getValue(), finished);
+                        progress = true;
+                    }
+                }
+                // A dependency cycle would otherwise stall the writer forever
+                if (!progress && downloaded.size() == mTables.size()) {
+                    for (Deque<HttpFetchr.Page> blocked : ready.values()) {
+                        if (!blocked.isEmpty()) {
+                            applyPages(blocked, finished);
+                            progress = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void applyPages(Deque<HttpFetchr.Page> pages, Set<String> finished) {
+        while (!pages.isEmpty()) {
+            HttpFetchr.Page page = pages.poll();
+            HttpFetchr fetchr = page.getFetchr();
+            if (finished.contains(fetchr.getRemoteTableName())) {
+                page.discard();
+                continue;
+            }
+            if (BuildConfig.DEBUG) Log.i(TAG, "Writing remote table " + fetchr.getRemoteTableName());
+            boolean applied = fetchr.apply(page);
+            // Records cached before the page was written, or changed by a rolled back page
+            ReceiveModelCache.invalidate(mTables.get(fetchr.getRemoteTableName()));
+            if (!applied) {
+                // Resume from the last committed page on the next sync
+                fetchr.cancel();
+                finished.add(fetchr.getRemoteTableName());
+                mFailed.add(fetchr.getRemoteTableName());
+            } else if (page.isLast()) {
+                finished.add(fetchr.getRemoteTableName());
+            }
+        }
+    }
+
+    /*
+     * Finish the table of pages without writing it, since a table it depends on failed.
+     */
+    private void skipPages(Deque<HttpFetchr.Page> pages, Set<String> finished) {
+        HttpFetchr fetchr = pages.peek().getFetchr();
+        Log.e(TAG, "Skipping " + fetchr.getRemoteTableName() + " after a table it depends " +
+                "on failed");
+        fetchr.cancel();
+        finished.add(fetchr.getRemoteTableName());
+        mFailed.add(fetchr.getRemoteTableName());
+        while (!pages.isEmpty()) {
+            pages.poll().discard();
+        }
+    }
+
+    private boolean dependencyFailed(String tableName) {
+        List<String> dependencies = mDependencies.get(tableName);
+        if (dependencies == null) return false;
+        for (String dependency : dependencies) {
+            if (mFailed.contains(dependency)) return true;
+        }
+        return false;
+    }
+
+    /*
+     * Tables that are not registered for this sync are treated as already finished so that
+     * a missing table can never stall the writer.
+     */
+    private boolean dependenciesFinished(String tableName, Set<String> finished) {
+        List<String> dependencies = mDependencies.get(tableName);
+        if (dependencies == null) return true;
+        for (String dependency : dependencies) {
+            if (mTables.containsKey(dependency) && !finished.contains(dependency)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,190 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import android.util.Log;
+
+import org.adaptlab.chpir.android.survey.BuildConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Sink;
+
+/*
+ * Gzip for request and response bodies. Request bodies are only compressed when
+ * ActiveRecordCloudSync.setCompressTransport(...) is on, since the remote has to accept
+ * them; gzipped responses are always accepted, as HTTP clients do by default.
+ *
+ * Responses are decompressed here because gzip is requested explicitly, which turns off
+ * OkHttp's transparent decompression, so that bytes on the wire can be counted separately
+ * from the bytes they decode to.
+ */
+public class TransportCompression {
+    private static final String TAG = "TransportCompression";
+    public static final String GZIP = "gzip";
+
+    private static final AtomicLong sWireBytesSent = new AtomicLong();
+    private static final AtomicLong sRawBytesSent = new AtomicLong();
+    private static final AtomicLong sWireBytesReceived = new AtomicLong();
+    private static final AtomicLong sRawBytesReceived = new AtomicLong();
+
+    public static boolean isEnabled() {
+        return ActiveRecordCloudSync.getCompressTransport();
+    }
+
+    public static void acceptCompressed(Request.Builder builder) {
+        builder.header("Accept-Encoding", GZIP);
+    }
+
+    /*
+     * The response body, decompressed if the remote sent it gzipped.
+     */
+    public static InputStream getInputStream(Response response) throws IOException {
+        InputStream in = new CountingInputStream(response.body().byteStream(), sWireBytesReceived);
+        if (GZIP.equalsIgnoreCase(response.header("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        return new CountingInputStream(in, sRawBytesReceived);
+    }
+
+    /*
+     * A request body for body, gzipped when compression is enabled.
+     */
+    public static RequestBody createBody(Request.Builder builder, MediaType type, byte[] body) {
+        byte[] wire = body;
+        if (isEnabled()) {
+            try {
+                wire = compress(body);
+                builder.header("Content-Encoding", GZIP);
+            } catch (IOException e) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "Unable to compress request body", e);
+            }
+        }
+        recordSent(wire.length, body.length);
+        return RequestBody.create(type, wire);
+    }
+
+    /*
+     * A request body that streams body, gzipped when compression is enabled. Its bytes are
+     * counted as they are written since its length is not known up front.
+     */
+    public static RequestBody createStreamingBody(Request.Builder builder, final RequestBody body) {
+        final boolean compress = isEnabled();
+        if (compress) builder.header("Content-Encoding", GZIP);
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return body.contentType();
+            }
+
+            @Override
+            public long contentLength() throws IOException {
+                return compress ? -1 : body.contentLength();
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                Sink wire = new CountingSink(sink, sWireBytesSent);
+                if (compress) {
+                    BufferedSink raw = Okio.buffer(new CountingSink(new GzipSink(wire),
+                            sRawBytesSent));
+                    body.writeTo(raw);
+                    raw.close();
+                } else {
+                    BufferedSink raw = Okio.buffer(new CountingSink(wire, sRawBytesSent));
+                    body.writeTo(raw);
+                    raw.flush();
+                }
+            }
+        };
+    }
+
+    private static byte[] compress(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        try {
+            gzip.write(body);
+        } finally {
+            gzip.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static void recordSent(long wireBytes, long rawBytes) {
+        sWireBytesSent.addAndGet(wireBytes);
+        sRawBytesSent.addAndGet(rawBytes);
+    }
+
+    public static long getWireBytesSent() {
+        return sWireBytesSent.get();
+    }
+
+    public static long getRawBytesSent() {
+        return sRawBytesSent.get();
+    }
+
+    public static long getWireBytesReceived() {
+        return sWireBytesReceived.get();
+    }
+
+    public static long getRawBytesReceived() {
+        return sRawBytesReceived.get();
+    }
+
+    public static void logCounters() {
+        if (BuildConfig.DEBUG) Log.i(TAG, "Sent " + getWireBytesSent() + " bytes (" +
+                getRawBytesSent() + " uncompressed), received " + getWireBytesReceived() +
+                " bytes (" + getRawBytesReceived() + " uncompressed)");
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong mCounter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            mCounter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) mCounter.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int bytesRead = super.read(buffer, offset, count);
+            if (bytesRead > 0) mCounter.addAndGet(bytesRead);
+            return bytesRead;
+        }
+    }
+
+    private static class CountingSink extends ForwardingSink {
+        private final AtomicLong mCounter;
+
+        CountingSink(Sink sink, AtomicLong counter) {
+            super(sink);
+            mCounter = counter;
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            super.write(source, byteCount);
+            mCounter.addAndGet(byteCount);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * The order in which remote tables are uploaded, and which of them wait for an unmetered
+ * network or a charger. A project can override the default with JSON such as
+ *
+ *   {"priorities": {"response_images": 2, "rosters": 1},
+ *    "wait_for_unmetered_or_charging": ["response_images"]}
+ *
+ * Lower priorities go first. Tables without a priority are NORMAL.
+ */
+public class UploadPolicy {
+    private static final String TAG = "UploadPolicy";
+    public static final int CRITICAL = 0;
+    public static final int NORMAL = 1;
+    public static final int BULK = 2;
+
+    private final Map<String, Integer> mPriorities = new HashMap<>();
+    private final Set<String> mDeferredTables = new HashSet<>();
+
+    public UploadPolicy() {
+        mPriorities.put("surveys", CRITICAL);
+        mPriorities.put("responses", CRITICAL);
+        mPriorities.put("scores", CRITICAL);
+        mPriorities.put("rosters", NORMAL);
+        mPriorities.put("raw_scores", NORMAL);
+        mPriorities.put("response_images", BULK);
+        mDeferredTables.add("response_images");
+    }
+
+    /*
+     * The default policy overridden by the project's policy json, which may be null.
+     */
+    public static UploadPolicy fromJSON(String json) {
+        UploadPolicy policy = new UploadPolicy();
+        if (json == null) return policy;
+        try {
+            JSONObject jsonObject = new JSONObject(json);
+            JSONObject priorities = jsonObject.optJSONObject("priorities");
+            if (priorities != null) {
+                Iterator<String> tables = priorities.keys();
+                while (tables.hasNext()) {
+                    String table = tables.next();
+                    policy.mPriorities.put(table, priorities.getInt(table));
+                }
+            }
+            JSONArray deferred = jsonObject.optJSONArray("wait_for_unmetered_or_charging");
+            if (deferred != null) {
+                policy.mDeferredTables.clear();
+                for (int i = 0; i < deferred.length(); i++) {
+                    policy.mDeferredTables.add(deferred.getString(i));
+                }
+            }
+        } catch (JSONException je) {
+            Log.e(TAG, "Invalid upload policy " + json, je);
+        }
+        return policy;
+    }
+
+    public int getPriority(String remoteTable) {
+        Integer priority = mPriorities.get(remoteTable);
+        return priority == null ? NORMAL : priority;
+    }
+
+    public boolean waitsForUnmeteredOrCharging(String remoteTable) {
+        return mDeferredTables.contains(remoteTable);
+    }
+
+    public static boolean isUnmeteredOrCharging(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(
+                Context.CONNECTIVITY_SERVICE);
+        if (cm != null && cm.getActiveNetworkInfo() != null &&
+                !ConnectivityManagerCompat.isActiveNetworkMetered(cm)) {
+            return true;
+        }
+        Intent battery = context.getApplicationContext().registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+}
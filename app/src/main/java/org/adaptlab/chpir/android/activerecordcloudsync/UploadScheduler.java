@@ -0,0 +1,513 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.activeandroid.ActiveAndroid;
+
+import org.adaptlab.chpir.android.survey.BuildConfig;
+import org.adaptlab.chpir.android.survey.models.OutboxEntry;
+import org.adaptlab.chpir.android.survey.models.Response;
+import org.adaptlab.chpir.android.survey.models.ResponsePhoto;
+import org.adaptlab.chpir.android.survey.models.Survey;
+import org.adaptlab.chpir.android.survey.models.SurveySerializer;
+import org.adaptlab.chpir.android.survey.models.SyncStat;
+import org.adaptlab.chpir.android.survey.utils.AppUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+
+/*
+ * Posts the outbox entries that are due with at most
+ * ActiveRecordCloudSync.getMaxUploadsInFlight() calls outstanding, while the calling thread
+ * acts as the single DB writer. Calls only hand their result back; the writer marks whatever
+ * completed since it last looked as sent, or failed, in one transaction and then starts the
+ * next calls. Memory and lock contention therefore stay flat however much is queued.
+ *
+ * With batch upload a survey and its responses go in one call. Draft responses are always
+ * posted on their own. A photo waits until its
+ * response has been acknowledged, since it refers to it.
+ *
+ * Attachments larger than one chunk go through ChunkedUpload, one call per step. A step that
+ * succeeds puts the upload back at the head of its priority so that a started file is
+ * finished before the next one begins.
+ *
+ * Uploads start in the order of their UploadPolicy priority. BULK uploads may only hold half
+ * of the call slots so that a completed survey is never stuck behind photos, and tables the
+ * policy holds back are deferred until the network is unmetered or the device is charging.
+ */
+public class UploadScheduler {
+    private static final String TAG = "UploadScheduler";
+    private static final long DEFER_MILLIS = 30 * 60 * 1000;
+    private static volatile boolean sMultipartUnsupported;
+
+    private final Context mContext;
+    private final int mMaxInFlight;
+    private final int mMaxBulkInFlight;
+    private final UploadPolicy mPolicy;
+    private final String mUploadId = Long.toString(System.currentTimeMillis());
+    private final Map<String, SyncStat> mStats = new HashMap<>();
+    private final List<Upload> mPending = new ArrayList<>();
+    private final BlockingQueue<Upload> mCompleted = new LinkedBlockingQueue<>();
+    private final SentReconciler mReconciler;
+    private SurveySerializer mSerializer;
+    private int mInFlight;
+    private int mBulkInFlight;
+    private boolean mPhotosAwaiting;
+    private boolean mResponsesSent;
+
+    public UploadScheduler(Context context) {
+        mContext = context;
+        mMaxInFlight = Math.max(1, ActiveRecordCloudSync.getMaxUploadsInFlight());
+        mMaxBulkInFlight = Math.max(1, mMaxInFlight / 2);
+        mPolicy = ActiveRecordCloudSync.getUploadPolicy();
+        mReconciler = new SentReconciler(context);
+    }
+
+    public void run() {
+        try {
+            do {
+                mPhotosAwaiting = false;
+                mResponsesSent = false;
+                collectDue();
+                while (!mPending.isEmpty() || mInFlight > 0) {
+                    startUploads();
+                    List<Upload> completed = new ArrayList<>();
+                    completed.add(mCompleted.take());
+                    mCompleted.drainTo(completed);
+                    for (Upload upload : completed) {
+                        mInFlight--;
+                        if (upload.isBulk()) mBulkInFlight--;
+                    }
+                    applyCompleted(completed);
+                }
+                // Photos held back for responses acknowledged in this round can go now
+            } while (mPhotosAwaiting && mResponsesSent);
+        } catch (InterruptedException ie) {
+            Log.e(TAG, "Interrupted while waiting for uploads", ie);
+            Thread.currentThread().interrupt();
+        } finally {
+            for (SyncStat stat : mStats.values()) {
+                stat.record();
+            }
+            OutboxScheduler.schedule(mContext.getApplicationContext());
+        }
+    }
+
+    private void collectDue() {
+        ActiveAndroid.beginTransaction();
+        try {
+            collectDue(UploadPolicy.isUnmeteredOrCharging(mContext));
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+    }
+
+    private void collectDue(boolean unmeteredOrCharging) {
+        Map<Long, SendBatch> batches = new LinkedHashMap<>();
+        List<SendModel> elements = new ArrayList<>();
+        List<OutboxEntry> due = new ArrayList<>();
+        for (OutboxEntry entry : OutboxEntry.getDue(System.currentTimeMillis())) {
+            if (!unmeteredOrCharging &&
+                    mPolicy.waitsForUnmeteredOrCharging(entry.getRemoteTable())) {
+                entry.defer(DEFER_MILLIS);
+            } else {
+                due.add(entry);
+            }
+        }
+        // The models and the surveys of the responses in a few queries, not one per entry
+        Map<OutboxEntry, SendModel> models = OutboxEntry.getModels(due);
+        Set<String> surveyUUIDs = new HashSet<>();
+        for (SendModel model : models.values()) {
+            if (model instanceof Response && ((Response) model).getSurveyUUID() != null) {
+                surveyUUIDs.add(((Response) model).getSurveyUUID());
+            }
+        }
+        Map<String, Survey> surveys = Survey.findByUUIDs(surveyUUIDs);
+        Map<Long, OutboxEntry> responseEntries = getResponseEntries(models.values());
+        for (OutboxEntry entry : due) {
+            SendModel element = models.get(entry);
+            if (element == null) {
+                entry.delete();
+                continue;
+            }
+            OutboxEntry responseEntry = element instanceof ResponsePhoto &&
+                    ((ResponsePhoto) element).getResponse() != null ?
+                    responseEntries.get(((ResponsePhoto) element).getResponse().getId()) : null;
+            if (responseEntry != null) {
+                // Not due again before its response, or the outbox alarm would fire right away
+                entry.waitFor(responseEntry);
+                mPhotosAwaiting = true;
+                continue;
+            }
+            Survey survey = null;
+            if (element instanceof Survey) {
+                survey = (Survey) element;
+            } else if (element instanceof Response) {
+                survey = surveys.get(((Response) element).getSurveyUUID());
+            }
+            if (survey != null && SendBatch.isEnabled() &&
+                    !DraftUpload.REMOTE_TABLE.equals(entry.getRemoteTable())) {
+                SendBatch batch = batches.get(survey.getId());
+                if (batch == null) {
+                    batch = new SendBatch();
+                    batches.put(survey.getId(), batch);
+                }
+                batch.add(entry, element);
+            } else {
+                addPending(new Upload(entry, element));
+            }
+            // Rows of a batch are posted on their own when the remote has no batch endpoint
+            elements.add(element);
+        }
+        for (SendBatch batch : batches.values()) {
+            addPending(new Upload(batch));
+        }
+        mSerializer = new SurveySerializer(elements);
+    }
+
+    /*
+     * Insert upload after every pending upload of the same or a higher priority.
+     */
+    private void addPending(Upload upload) {
+        int index = mPending.size();
+        while (index > 0 && mPending.get(index - 1).mPriority > upload.mPriority) {
+            index--;
+        }
+        mPending.add(index, upload);
+    }
+
+    /*
+     * Insert upload before every other pending upload of the same priority.
+     */
+    private void resumePending(Upload upload) {
+        int index = 0;
+        while (index < mPending.size() && mPending.get(index).mPriority < upload.mPriority) {
+            index++;
+        }
+        mPending.add(index, upload);
+    }
+
+    /*
+     * The outbox entries of the responses of the photos among elements, which are posted
+     * before their photos, keyed by response id. Draft entries are left out since a photo
+     * only waits for its response to be sent for good.
+     */
+    private Map<Long, OutboxEntry> getResponseEntries(Collection<SendModel> elements) {
+        List<Long> responseIds = new ArrayList<>();
+        for (SendModel element : elements) {
+            if (element instanceof ResponsePhoto &&
+                    ((ResponsePhoto) element).getResponse() != null) {
+                responseIds.add(((ResponsePhoto) element).getResponse().getId());
+            }
+        }
+        Map<Long, OutboxEntry> entries = new HashMap<>();
+        if (responseIds.isEmpty()) return entries;
+        for (OutboxEntry entry : OutboxEntry.findByModelIds(Response.class, responseIds)) {
+            if (!DraftUpload.REMOTE_TABLE.equals(entry.getRemoteTable())) {
+                entries.put(entry.getModelId(), entry);
+            }
+        }
+        return entries;
+    }
+
+    private void startUploads() {
+        if (mPending.isEmpty() || mInFlight >= mMaxInFlight) return;
+        ActiveAndroid.beginTransaction();
+        try {
+            Iterator<Upload> pending = mPending.iterator();
+            while (mInFlight < mMaxInFlight && pending.hasNext()) {
+                Upload upload = pending.next();
+                if (upload.isBulk() && mBulkInFlight >= mMaxBulkInFlight) continue;
+                pending.remove();
+                start(upload);
+                mInFlight++;
+                if (upload.isBulk()) mBulkInFlight++;
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+    }
+
+    private void start(final Upload upload) {
+        upload.mResponseCode = -1;
+        upload.mError = null;
+        upload.mResponseBody = null;
+        Request request;
+        try {
+            request = upload.createRequest();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write " + upload, e);
+            upload.startAttempt();
+            upload.mError = e.toString();
+            mCompleted.add(upload);
+            return;
+        }
+        upload.startAttempt();
+        final long start = System.currentTimeMillis();
+        AppUtil.getOkHttpClient().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "onFailure: ", e);
+                upload.mError = e.toString();
+                upload.mTransferMillis = System.currentTimeMillis() - start;
+                mCompleted.add(upload);
+            }
+
+            @Override
+            public void onResponse(Call call, okhttp3.Response response) {
+                upload.mResponseCode = response.code();
+                if (upload.isChunked()) {
+                    upload.mUploadOffset = response.header(ChunkedUpload.UPLOAD_OFFSET);
+                    try {
+                        upload.mResponseBody = response.body().string();
+                    } catch (IOException e) {
+                        upload.mError = e.toString();
+                    }
+                }
+                response.close();
+                upload.mTransferMillis = System.currentTimeMillis() - start;
+                mCompleted.add(upload);
+            }
+        });
+    }
+
+    /*
+     * Commit the results of completed calls in one transaction. Acknowledged records are
+     * marked sent together by the SentReconciler.
+     */
+    private void applyCompleted(List<Upload> completed) {
+        long commitStart = System.currentTimeMillis();
+        int sent = 0;
+        ActiveAndroid.beginTransaction();
+        try {
+            for (Upload upload : completed) {
+                if (upload.isChunked() && upload.mChunked.isUploadingFile()) {
+                    if (upload.mChunked.advance(upload.mResponseCode, upload.mUploadOffset,
+                            upload.mResponseBody)) {
+                        resumePending(upload);
+                    } else if (ChunkedUpload.isUnsupported()) {
+                        if (BuildConfig.DEBUG) Log.i(TAG, "Chunked upload unsupported");
+                        addPending(new Upload(upload.mEntry, upload.mElement));
+                    } else {
+                        if (BuildConfig.DEBUG) Log.i(TAG, "Not successful: " + upload);
+                        upload.fail();
+                    }
+                } else if (upload.isSuccessful()) {
+                    if (BuildConfig.DEBUG) Log.i(TAG, "Successfully submitted " + upload);
+                    upload.setAsSent();
+                    sent++;
+                } else if (upload.isBatch() && SendBatch.isUnsupported(upload.mResponseCode)) {
+                    if (BuildConfig.DEBUG) Log.i(TAG, "Batch upload unsupported, sending rows");
+                    for (int i = 0; i < upload.mBatch.size(); i++) {
+                        addPending(new Upload(upload.mBatch.getEntries().get(i),
+                                upload.mBatch.getElements().get(i)));
+                    }
+                } else if (upload.mMultipart &&
+                        upload.mResponseCode == HttpURLConnection.HTTP_UNSUPPORTED_TYPE) {
+                    if (BuildConfig.DEBUG) Log.i(TAG, "Multipart unsupported, sending JSON");
+                    sMultipartUnsupported = true;
+                    addPending(new Upload(upload.mEntry, upload.mElement));
+                } else {
+                    if (BuildConfig.DEBUG) Log.i(TAG, "Not successful: " + upload);
+                    upload.fail();
+                }
+            }
+            mReconciler.apply();
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+        long commitMillis = sent == 0 ? 0 : (System.currentTimeMillis() - commitStart) / sent;
+        for (Upload upload : completed) {
+            recordStat(upload.getTableName(), upload.getBytes(), upload.mTransferMillis,
+                    upload.mSent ? commitMillis : 0, upload.mSent ? upload.size() : 0,
+                    upload.isSuccessful());
+        }
+    }
+
+    private void recordStat(String tableName, long bytes, long transferMillis, long commitMillis,
+                            int rows, boolean succeeded) {
+        SyncStat stat = mStats.get(tableName);
+        if (stat == null) {
+            stat = new SyncStat(mUploadId, SyncStat.UPLOAD, tableName);
+            stat.setSucceeded(true);
+            mStats.put(tableName, stat);
+        }
+        stat.addBytes(bytes);
+        stat.addTransferMillis(transferMillis);
+        stat.addCommitMillis(commitMillis);
+        stat.addRows(rows);
+        if (!succeeded) stat.setSucceeded(false);
+    }
+
+    /*
+     * One call: a batch, or a single entry. Its result fields are set by the call's callback
+     * and read by the writer once it has been taken from the completed queue.
+     */
+    private class Upload {
+        private final SendBatch mBatch;
+        private final OutboxEntry mEntry;
+        private final SendModel mElement;
+        private final int mPriority;
+        private ChunkedUpload mChunked;
+        private boolean mMultipart;
+        private boolean mSent;
+        private String mUploadOffset;
+        private String mResponseBody;
+        private String mDraftChecksum;
+        private long mBytes;
+        private int mResponseCode = -1;
+        private String mError;
+        private long mTransferMillis;
+
+        Upload(SendBatch batch) {
+            mBatch = batch;
+            mEntry = null;
+            mElement = null;
+            mChunked = null;
+            int priority = UploadPolicy.BULK;
+            for (OutboxEntry entry : batch.getEntries()) {
+                priority = Math.min(priority, mPolicy.getPriority(entry.getRemoteTable()));
+            }
+            mPriority = priority;
+        }
+
+        Upload(OutboxEntry entry, SendModel element) {
+            mBatch = null;
+            mEntry = entry;
+            mElement = element;
+            mPriority = mPolicy.getPriority(entry.getRemoteTable());
+            mChunked = ChunkedUpload.create(entry, element);
+        }
+
+        boolean isBulk() {
+            return mPriority >= UploadPolicy.BULK;
+        }
+
+        boolean isBatch() {
+            return mBatch != null;
+        }
+
+        boolean isChunked() {
+            return mChunked != null;
+        }
+
+        boolean isDraft() {
+            return !isBatch() && DraftUpload.REMOTE_TABLE.equals(mEntry.getRemoteTable());
+        }
+
+        /*
+         * Attachments larger than a chunk go through ChunkedUpload. Other photos are uploaded
+         * as multipart form data with the file streamed from disk, unless the remote has
+         * answered that it only accepts them Base64 encoded in JSON.
+         */
+        Request createRequest() throws IOException {
+            if (isBatch()) return mBatch.createRequest();
+            mMultipart = false;
+            if (isChunked()) {
+                try {
+                    return mChunked.createRequest();
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to read " + mElement, e);
+                    mChunked = null;
+                }
+            }
+            String url = ActiveRecordCloudSync.getEndPoint() + mEntry.getRemoteTable() +
+                    ActiveRecordCloudSync.getParams();
+            if (mElement instanceof ResponsePhoto && !sMultipartUnsupported) {
+                ResponsePhoto photo = (ResponsePhoto) mElement;
+                File file = photo.getPictureFile();
+                if (file != null) {
+                    mMultipart = true;
+                    mBytes = file.length();
+                    return HttpUtil.multipartPost(url, photo.toMultipartFields(),
+                            "response_image[picture]", file, HttpUtil.JPEG,
+                            mEntry.getIdempotencyKey());
+                }
+            }
+            if (isDraft()) mDraftChecksum = ((Response) mElement).getContentChecksum();
+            byte[] json = mSerializer.toBytes(mElement, null);
+            mBytes = json.length;
+            return HttpUtil.jsonPost(url, json, mEntry.getIdempotencyKey());
+        }
+
+        void startAttempt() {
+            if (isBatch()) {
+                mBatch.startAttempt();
+            } else {
+                mEntry.startAttempt();
+            }
+        }
+
+        boolean isSuccessful() {
+            return mResponseCode >= 200 && mResponseCode < 300;
+        }
+
+        void setAsSent() {
+            if (isBatch()) {
+                for (int i = 0; i < mBatch.size(); i++) {
+                    SendModel element = mBatch.getElements().get(i);
+                    mReconciler.add(mBatch.getEntries().get(i), element);
+                    if (element instanceof Response) mResponsesSent = true;
+                }
+            } else if (isDraft()) {
+                ((Response) mElement).setDraftChecksum(mDraftChecksum);
+                mReconciler.add(mEntry, null);
+            } else {
+                mReconciler.add(mEntry, mElement);
+                if (isChunked()) mChunked.setAsSent();
+                if (mElement instanceof Response) mResponsesSent = true;
+            }
+            mSent = true;
+        }
+
+        void fail() {
+            String error = mError != null ? mError : "HTTP " + mResponseCode;
+            if (isBatch()) {
+                mBatch.fail(error);
+            } else {
+                mEntry.fail(error);
+                if (isChunked()) mChunked.fail(mResponseCode);
+            }
+        }
+
+        int size() {
+            return isBatch() ? mBatch.size() : 1;
+        }
+
+        long getBytes() {
+            if (isBatch()) return mBatch.getBytes();
+            return isChunked() ? mChunked.getBytes() : mBytes;
+        }
+
+        String getTableName() {
+            if (isBatch()) return SendBatch.REMOTE_TABLE;
+            return isChunked() && mChunked.isUploadingFile() ? ChunkedUpload.REMOTE_TABLE :
+                    mEntry.getRemoteTable();
+        }
+
+        @Override
+        public String toString() {
+            return isBatch() ? "batch of " + mBatch.size() : String.valueOf(mElement);
+        }
+    }
+}
@@ -32,10 +32,13 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.ActiveRecordCloudSync;
+import org.adaptlab.chpir.android.activerecordcloudsync.HttpUtil;
 import org.adaptlab.chpir.android.survey.models.AdminSettings;
 import org.adaptlab.chpir.android.survey.models.Instrument;
 import org.adaptlab.chpir.android.survey.models.Response;
 import org.adaptlab.chpir.android.survey.models.Survey;
+import org.adaptlab.chpir.android.survey.models.SyncStat;
+import org.adaptlab.chpir.android.survey.models.SyncWatermark;
 import org.adaptlab.chpir.android.survey.tasks.ApkUpdateTask;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.adaptlab.chpir.android.survey.utils.LocaleManager;
@@ -46,9 +49,7 @@ import org.json.JSONObject;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -79,6 +80,9 @@ public class AdminFragment extends Fragment {
     private CheckBox mRosterEndPointCheckBox;
     private CheckBox mShowSurveysCheckBox;
     private CheckBox mShowRostersCheckBox;
+    private CheckBox mCompressTransportCheckBox;
+    private CheckBox mBatchUploadCheckBox;
+    private CheckBox mIncrementalUploadCheckBox;
     private CheckBox mShowScoresCheckBox;
     private CheckBox mShowSkipCheckBox;
     private CheckBox mShowNACheckBox;
@@ -161,6 +165,15 @@ public class AdminFragment extends Fragment {
         mRecordSurveyLocationCheckBox = (CheckBox) v.findViewById(R.id.record_survey_location_checkbox);
         mRecordSurveyLocationCheckBox.setChecked(AppUtil.getAdminSettingsInstance().getRecordSurveyLocation());
 
+        mCompressTransportCheckBox = (CheckBox) v.findViewById(R.id.compress_transport_checkbox);
+        mCompressTransportCheckBox.setChecked(AppUtil.getAdminSettingsInstance().getCompressTransport());
+
+        mBatchUploadCheckBox = (CheckBox) v.findViewById(R.id.batch_upload_checkbox);
+        mBatchUploadCheckBox.setChecked(AppUtil.getAdminSettingsInstance().getBatchUpload());
+
+        mIncrementalUploadCheckBox = (CheckBox) v.findViewById(R.id.incremental_upload_checkbox);
+        mIncrementalUploadCheckBox.setChecked(AppUtil.getAdminSettingsInstance().getIncrementalUpload());
+
         mDeviceIdentifierEditText = (EditText) v.findViewById(R.id.device_identifier_edit_text);
         mDeviceIdentifierEditText.setText(getAdminSettingsInstanceDeviceId());
         mDeviceIdentifierEditText.setSelection(mDeviceIdentifierEditText.getText().length());
@@ -200,11 +213,21 @@ public class AdminFragment extends Fragment {
             @Override
             public void onClick(View v) {
                 AppUtil.getAdminSettingsInstance().setLastSyncTime(null);
+                SyncWatermark.reset(AppUtil.getProjectId(),
+                        ActiveRecordCloudSync.getEndPoint());
                 lastUpdateTextView.setText(String.format(Locale.getDefault(), "%s%s%s",
                         getString(R.string.last_update), " ", getLastUpdateTime()));
             }
         });
 
+        Button syncDiagnostics = (Button) v.findViewById(R.id.sync_diagnostics_button);
+        syncDiagnostics.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showSyncDiagnosticsDialog();
+            }
+        });
+
         TextView versionCodeTextView = (TextView) v.findViewById(R.id.version_code_label);
         versionCodeTextView.setText(String.format(Locale.getDefault(), "%s%s%d",
                 getString(R.string.version_code), " ", AppUtil.getVersionCode(getActivity())));
@@ -422,6 +445,32 @@ public class AdminFragment extends Fragment {
         return dateFormat.format(calendar.getTime());
     }
 
+    /*
+     * Per-table timings of the recent syncs and uploads, newest first.
+     */
+    private void showSyncDiagnosticsDialog() {
+        if (getActivity() == null) return;
+        StringBuilder message = new StringBuilder();
+        String syncId = null;
+        for (SyncStat stat : SyncStat.getRecent()) {
+            if (stat.getSyncId() != null && !stat.getSyncId().equals(syncId)) {
+                syncId = stat.getSyncId();
+                if (message.length() > 0) message.append("\n");
+                Calendar calendar = Calendar.getInstance();
+                calendar.setTimeInMillis(Long.parseLong(syncId));
+                message.append(DateFormat.getDateTimeInstance().format(calendar.getTime()))
+                        .append("\n");
+            }
+            message.append(stat.toString()).append("\n");
+        }
+        if (message.length() == 0) message.append(getString(R.string.no_sync_diagnostics));
+        new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.sync_diagnostics)
+                .setMessage(message.toString())
+                .setPositiveButton(R.string.upper_case_OK, null)
+                .show();
+    }
+
     private void showConfigurationsDialog() {
         final AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -562,6 +611,12 @@ public class AdminFragment extends Fragment {
 //            AppUtil.getAdminSettingsInstance().setShowDK(mShowDKCheckBox.isChecked());
             AppUtil.getAdminSettingsInstance().setRequirePassword(mRequirePasswordCheckBox.isChecked());
             AppUtil.getAdminSettingsInstance().setRecordSurveyLocation(mRecordSurveyLocationCheckBox.isChecked());
+            AppUtil.getAdminSettingsInstance().setCompressTransport(mCompressTransportCheckBox.isChecked());
+            ActiveRecordCloudSync.setCompressTransport(mCompressTransportCheckBox.isChecked());
+            AppUtil.getAdminSettingsInstance().setBatchUpload(mBatchUploadCheckBox.isChecked());
+            ActiveRecordCloudSync.setBatchUpload(mBatchUploadCheckBox.isChecked());
+            AppUtil.getAdminSettingsInstance().setIncrementalUpload(mIncrementalUploadCheckBox.isChecked());
+            ActiveRecordCloudSync.setIncrementalUpload(mIncrementalUploadCheckBox.isChecked());
 
             //Roster settings
 //            AppUtil.getAdminSettingsInstance().setUseEndpoint2(mRosterEndPointCheckBox.isChecked());
@@ -647,27 +702,17 @@ public class AdminFragment extends Fragment {
                 if (BuildConfig.DEBUG) Log.e(TAG, "JSON exception", je);
             }
 
-            HttpURLConnection urlConnection = null;
+            okhttp3.Response response = null;
             String apiKey = null;
 
             try {
-                URL url = new URL(urlString);
-                urlConnection = (HttpURLConnection) url.openConnection();
-                urlConnection.setRequestMethod("POST");
-                urlConnection.setRequestProperty("Content-Type", "application/json");
-                urlConnection.setRequestProperty("Accept", "application/json");
-                urlConnection.setConnectTimeout(30000);
-                urlConnection.setReadTimeout(30000);
-                urlConnection.setDoOutput(true);
-
                 byte[] outputInBytes = json.toString().getBytes(CharEncoding.UTF_8);
-                OutputStream outputStream = urlConnection.getOutputStream();
-                outputStream.write(outputInBytes);
-                outputStream.close();
+                response = HttpUtil.getClient(30000).newCall(
+                        HttpUtil.jsonPost(urlString, outputInBytes)).execute();
 
-                if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                if (response.code() == HttpURLConnection.HTTP_OK) {
                     ByteArrayOutputStream output = new ByteArrayOutputStream();
-                    InputStream in = urlConnection.getInputStream();
+                    InputStream in = response.body().byteStream();
 
                     int bytesRead = 0;
                     byte[] buffer = new byte[1024];
@@ -678,14 +723,14 @@ public class AdminFragment extends Fragment {
                     String jsonString = new String(output.toByteArray());
                     JSONObject jsonObject = new JSONObject(jsonString);
                     apiKey = jsonObject.optString("access_token", null);
-                } else if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                } else if (response.code() == HttpURLConnection.HTTP_UNAUTHORIZED) {
                     apiKey = HttpURLConnection.HTTP_UNAUTHORIZED + "";
                 }
 
-            } catch (IOException | JSONException e) {
+            } catch (IOException | JSONException | IllegalArgumentException e) {
                 Log.e(TAG, "Exception: " + e);
             } finally {
-                if (urlConnection != null) urlConnection.disconnect();
+                if (response != null) response.close();
             }
             return apiKey;
         }
@@ -23,7 +23,7 @@ import android.view.View;
 import android.widget.TextView;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.ActiveRecordCloudSync;
-import org.adaptlab.chpir.android.activerecordcloudsync.HttpUtil;
+import org.adaptlab.chpir.android.activerecordcloudsync.ImageStore;
 import org.adaptlab.chpir.android.activerecordcloudsync.NotificationUtils;
 import org.adaptlab.chpir.android.survey.models.AdminSettings;
 import org.adaptlab.chpir.android.survey.models.Image;
@@ -283,9 +283,8 @@ public class InstrumentActivity extends AppCompatActivity {
                 ActiveRecordCloudSync.setVersionCode(AppUtil.getVersionCode(AppUtil.getContext()));
                 ActiveRecordCloudSync.downloadNotification(AppUtil.getContext(),
                         android.R.drawable.stat_sys_download, R.string.sync_notification_text);
-                for (Image image : Image.getAll()) {
-                    HttpUtil.getFile(image);
-                }
+                ImageStore.fetchAll(AppUtil.getContext(), Image.getAll());
+                ImageStore.evictUnreferenced();
                 ActiveRecordCloudSync.downloadNotification(AppUtil.getContext(),
                         android.R.drawable.stat_sys_download_done, R.string.sync_notification_complete_text);
 
@@ -350,11 +350,23 @@ public abstract class MultipleQuestionsFragment extends QuestionFragment {
     protected void createResponse(Question question) {
         Response response = mSurveyFragment.getResponses().get(question.getQuestionIdentifier());
         if (response == null) {
-            response = getResponse(question);
+            response = loadOrCreateResponse(question);
             getSurvey().setLastUpdated(new Date());
             saveResponseInBackground(response);
+        }
+    }
+
+    /*
+     * The response to question kept by the survey fragment. Responses are saved behind, so
+     * one created moments ago may not be in the database yet.
+     */
+    protected Response loadOrCreateResponse(Question question) {
+        Response response = mSurveyFragment.getResponses().get(question.getQuestionIdentifier());
+        if (response == null) {
+            response = getResponse(question);
             mSurveyFragment.getResponses().put(question.getQuestionIdentifier(), response);
         }
+        return response;
     }
 
     @NonNull
@@ -367,10 +379,7 @@ public abstract class MultipleQuestionsFragment extends QuestionFragment {
     }
 
     protected void saveResponse(Question question, int checkedId, boolean isChecked) {
-        Response response = mSurveyFragment.getResponses().get(question.getQuestionIdentifier());
-        if (response == null) {
-            response = getResponse(question);
-        }
+        Response response = loadOrCreateResponse(question);
         response.setResponse(String.valueOf(checkedId));
         response.setTimeEnded(new Date());
         mSurvey.setLastUpdated(new Date());
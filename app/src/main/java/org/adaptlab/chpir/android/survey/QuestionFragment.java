@@ -3,8 +3,6 @@ package org.adaptlab.chpir.android.survey;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.support.v4.app.Fragment;
 import android.text.Spanned;
 import android.text.TextUtils;
@@ -23,6 +21,7 @@ import org.adaptlab.chpir.android.survey.models.OptionSetTranslation;
 import org.adaptlab.chpir.android.survey.models.OptionTranslation;
 import org.adaptlab.chpir.android.survey.models.Question;
 import org.adaptlab.chpir.android.survey.models.Response;
+import org.adaptlab.chpir.android.survey.models.ResponseWriter;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 
 import java.util.ArrayList;
@@ -88,13 +87,8 @@ public abstract class QuestionFragment extends Fragment {
         }
     }
 
-    protected void saveResponseInBackground(final Response response) {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
-            public void run() {
-                response.save();
-                mSurveyFragment.getSurvey().save();
-            }
-        });
+    protected void saveResponseInBackground(Response response) {
+        ResponseWriter.save(response, mSurveyFragment.getSurvey());
     }
 
     protected String getQuestionInstructions(Question question) {
@@ -6,6 +6,7 @@ import android.support.v7.app.AppCompatDelegate;
 
 import com.newrelic.agent.android.NewRelic;
 
+import org.adaptlab.chpir.android.activerecordcloudsync.DatabaseConfig;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.adaptlab.chpir.android.survey.utils.LocaleManager;
 
@@ -23,6 +24,7 @@ public class SurveyApp extends com.activeandroid.app.Application {
     public void onCreate() {
         AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_NO);
         super.onCreate();
+        DatabaseConfig.configure();
         mInstance = this;
         NewRelic.withApplicationToken(getString(R.string.new_relic_application_token)).start(this);
     }
@@ -68,9 +68,11 @@ import org.adaptlab.chpir.android.survey.models.OptionSetTranslation;
 import org.adaptlab.chpir.android.survey.models.OptionTranslation;
 import org.adaptlab.chpir.android.survey.models.Question;
 import org.adaptlab.chpir.android.survey.models.Response;
+import org.adaptlab.chpir.android.survey.models.ResponseWriter;
 import org.adaptlab.chpir.android.survey.models.Score;
 import org.adaptlab.chpir.android.survey.models.ScoreScheme;
 import org.adaptlab.chpir.android.survey.models.Survey;
+import org.adaptlab.chpir.android.survey.models.SurveySnapshot;
 import org.adaptlab.chpir.android.survey.roster.RosterActivity;
 import org.adaptlab.chpir.android.survey.rules.InstrumentSurveyLimitPerMinuteRule;
 import org.adaptlab.chpir.android.survey.rules.InstrumentSurveyLimitRule;
@@ -287,6 +289,12 @@ public class SurveyFragment extends Fragment {
         outState.putLong(EXTRA_SURVEY_ID, mSurvey.getId());
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        ResponseWriter.flush();
+    }
+
     @Override
     public void onStop() {
         if (mLocationManager != null) {
@@ -359,6 +367,7 @@ public class SurveyFragment extends Fragment {
     }
 
     private void finishActivity() {
+        ResponseWriter.flush();
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             getActivity().finishAfterTransition();
         } else {
@@ -1040,6 +1049,7 @@ public class SurveyFragment extends Fragment {
 
     private void proceedFinishingSurvey() {
         unSetSkipQuestionResponse();
+        ResponseWriter.flush();
         if (AppUtil.getAdminSettingsInstance().getRecordSurveyLocation()) {
             setSurveyLocation();
         }
@@ -1236,7 +1246,9 @@ public class SurveyFragment extends Fragment {
         protected InstrumentDataWrapper doInBackground(Object... params) {
             InstrumentDataWrapper instrumentData = new InstrumentDataWrapper();
             instrumentData.questions = (ArrayList<Question>) ((Instrument) params[0]).questions();
-            instrumentData.responses = ((Survey) params[1]).responsesMap();
+            ResponseWriter.flush();
+            instrumentData.responses = SurveySnapshot.load((Survey) params[1],
+                    instrumentData.questions).responsesMap();
             instrumentData.options = ((Instrument) params[0]).optionsMap(instrumentData.questions);
             instrumentData.specialOptions = ((Instrument) params[0]).specialOptionsMap();
             instrumentData.displayInstructions = ((Instrument) params[0]).displayInstructions();
@@ -64,6 +64,12 @@ public class AdminSettings extends Model {
     private String mLanguage;
     @Column(name = "DatabaseVersion")
     private int mDatabaseVersion;
+    @Column(name = "CompressTransport")
+    private boolean mCompressTransport;
+    @Column(name = "BatchUpload")
+    private boolean mBatchUpload;
+    @Column(name = "IncrementalUpload")
+    private boolean mIncrementalUpload;
 
     /**
      * Typically a Singleton constructor is private, but in this case the constructor
@@ -268,6 +274,7 @@ public class AdminSettings extends Model {
     public void resetLastSyncTime() {
         mLastSyncTime = null;
         save();
+        SyncWatermark.resetAll();
     }
 
     public List<String> getSpecialOptions() {
@@ -362,4 +369,31 @@ public class AdminSettings extends Model {
         mDatabaseVersion = version;
         save();
     }
+
+    public boolean getCompressTransport() {
+        return mCompressTransport;
+    }
+
+    public void setCompressTransport(boolean compressTransport) {
+        mCompressTransport = compressTransport;
+        save();
+    }
+
+    public boolean getBatchUpload() {
+        return mBatchUpload;
+    }
+
+    public void setBatchUpload(boolean batchUpload) {
+        mBatchUpload = batchUpload;
+        save();
+    }
+
+    public boolean getIncrementalUpload() {
+        return mIncrementalUpload;
+    }
+
+    public void setIncrementalUpload(boolean incrementalUpload) {
+        mIncrementalUpload = incrementalUpload;
+        save();
+    }
 }
\ No newline at end of file
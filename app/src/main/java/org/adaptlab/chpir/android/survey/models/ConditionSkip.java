@@ -44,10 +44,7 @@ public class ConditionSkip extends ReceiveModel {
     public void createObjectFromJSON(JSONObject jsonObject) {
         try {
             Long remoteId = jsonObject.getLong("id");
-            ConditionSkip conditionSkip = ConditionSkip.findByRemoteId(remoteId);
-            if (conditionSkip == null) {
-                conditionSkip = this;
-            }
+            ConditionSkip conditionSkip = this;
             conditionSkip.setRemoteId(remoteId);
             conditionSkip.setQuestionIdentifier(jsonObject.getString("question_identifier"));
             conditionSkip.setRemoteQuestionId(jsonObject.getLong("question_id"));
@@ -62,7 +59,7 @@ public class ConditionSkip extends ReceiveModel {
             } else {
                 conditionSkip.setDeleted(true);
             }
-            conditionSkip.save();
+            conditionSkip.upsert();
         } catch (JSONException je) {
             Log.e(TAG, "Error parsing object json", je);
         }
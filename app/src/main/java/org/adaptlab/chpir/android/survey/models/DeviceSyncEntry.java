@@ -4,6 +4,7 @@ import android.content.Context;
 import android.util.Log;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.ActiveRecordCloudSync;
+import org.adaptlab.chpir.android.activerecordcloudsync.HttpUtil;
 import org.adaptlab.chpir.android.activerecordcloudsync.SendModel;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.adaptlab.chpir.android.survey.BuildConfig;
@@ -13,12 +14,11 @@ import org.json.JSONObject;
 import org.adaptlab.chpir.android.survey.location.LocationManager;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.Locale;
 import java.util.TimeZone;
 
+import okhttp3.Response;
+
 public class DeviceSyncEntry extends SendModel {
     private static final String TAG = "DeviceSyncEntry";
     private LocationManager mLocationManager;
@@ -49,6 +49,8 @@ public class DeviceSyncEntry extends SendModel {
             jsonObject.put("project_id", AdminSettings.getInstance().getProjectId());
             jsonObject.put("device_label", AdminSettings.getInstance().getDeviceLabel());
             jsonObject.put("os_build_number", AppUtil.getOsBuildNumber());
+            jsonObject.put("sync_stats",
+                    SyncStat.summary(ActiveRecordCloudSync.getLastSyncTime()).toString());
 
             json.put("device_sync_entry", jsonObject);
         } catch (JSONException je) {
@@ -97,26 +99,17 @@ public class DeviceSyncEntry extends SendModel {
 
     public void pushRemote() {
         if (BuildConfig.DEBUG) Log.i(TAG, "Pushing sync entry");
-        HttpURLConnection connection = null;
+        Response response = null;
         String endPoint = ActiveRecordCloudSync.getEndPoint() + "device_sync_entries" +
                 ActiveRecordCloudSync.getParams();
         try {
-            connection = (HttpURLConnection) new URL(endPoint).openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("Accept", "application/json");
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(10000);
-            connection.setDoOutput(true);
-
             JSONObject json = toJSON();
             byte[] outputInBytes = json.toString().getBytes(CharEncoding.UTF_8);
-            OutputStream outputStream = connection.getOutputStream();
-            outputStream.write(outputInBytes);
-            outputStream.close();
+            response = HttpUtil.getClient(10000).newCall(HttpUtil.jsonPost(endPoint, outputInBytes))
+                    .execute();
 
             if (AppUtil.DEBUG) {
-                int responseCode = connection.getResponseCode();
+                int responseCode = response.code();
                 if (responseCode >= 200 && responseCode < 300) {
                     Log.i(TAG, "Received OK HTTP code for " + json);
                 } else {
@@ -125,9 +118,11 @@ public class DeviceSyncEntry extends SendModel {
             }
         } catch (IOException e) {
             Log.e(TAG, "IOException " + e);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid end point " + e);
         } finally {
-            if (connection != null) {
-                connection.disconnect();
+            if (response != null) {
+                response.close();
             }
         }
     }
@@ -6,6 +6,7 @@ import com.activeandroid.annotation.Column;
 import com.activeandroid.annotation.Table;
 import com.activeandroid.query.Select;
 
+import org.adaptlab.chpir.android.activerecordcloudsync.BulkUpsert;
 import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModel;
 import org.adaptlab.chpir.android.survey.BuildConfig;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
@@ -71,10 +72,7 @@ public class Display extends ReceiveModel {
         if (BuildConfig.DEBUG) Log.i(TAG, "Creating Display: " + jsonObject);
         try {
             Long remoteId = jsonObject.getLong("id");
-            Display display = Display.findByRemoteId(remoteId);
-            if (display == null) {
-                display = new Display();
-            }
+            Display display = this;
             display.setRemoteId(remoteId);
             display.setMode(jsonObject.optString("mode"));
             display.setPosition(jsonObject.optInt("position"));
@@ -87,22 +85,19 @@ public class Display extends ReceiveModel {
             } else {
                 display.setDeleted(true);
             }
-            display.save();
+            display.upsert();
 
             JSONArray translationsArray = jsonObject.optJSONArray("display_translations");
             if (translationsArray != null) {
                 for (int i = 0; i < translationsArray.length(); i++) {
                     JSONObject translationJSON = translationsArray.getJSONObject(i);
                     Long translationRemoteId = translationJSON.getLong("id");
-                    DisplayTranslation translation = DisplayTranslation.findByRemoteId(translationRemoteId);
-                    if (translation == null) {
-                        translation = new DisplayTranslation();
-                    }
+                    DisplayTranslation translation = new DisplayTranslation();
                     translation.setRemoteId(translationRemoteId);
                     translation.setLanguage(translationJSON.getString("language"));
                     translation.setDisplay(display);
                     translation.setText(translationJSON.getString("text"));
-                    translation.save();
+                    BulkUpsert.upsert(translation);
                 }
             }
         } catch (JSONException je) {
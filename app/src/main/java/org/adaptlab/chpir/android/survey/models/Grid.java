@@ -8,6 +8,7 @@ import com.activeandroid.annotation.Table;
 import com.activeandroid.query.Select;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModel;
+import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModelCache;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -76,7 +77,8 @@ public class Grid extends ReceiveModel {
     }
 
     public static Grid findByRemoteId(Long remoteId) {
-        return new Select().from(Grid.class).where("RemoteId = ?", remoteId).executeSingle();
+        return ReceiveModelCache.find(Grid.class, remoteId, new Select().from(Grid.class)
+                .where("RemoteId = ?", remoteId));
     }
 
     private void setQuestionType(String questionType) {
@@ -0,0 +1,72 @@
+package org.adaptlab.chpir.android.survey.models;
+
+import com.activeandroid.Model;
+import com.activeandroid.annotation.Column;
+import com.activeandroid.annotation.Table;
+import com.activeandroid.query.Delete;
+import com.activeandroid.query.Select;
+
+/*
+ * ETag and Last-Modified validators last received for an endpoint url (without its query
+ * string). They are sent back as If-None-Match and If-Modified-Since so that the remote
+ * can answer 304 Not Modified instead of a full body.
+ */
+@Table(name = "HttpValidators")
+public class HttpValidator extends Model {
+    @Column(name = "Url", unique = true, onUniqueConflict = Column.ConflictAction.REPLACE)
+    private String mUrl;
+    @Column(name = "ETag")
+    private String mETag;
+    @Column(name = "LastModified")
+    private String mLastModified;
+
+    public HttpValidator() {
+        super();
+    }
+
+    public static HttpValidator findByUrl(String url) {
+        return new Select().from(HttpValidator.class).where("Url = ?", url).executeSingle();
+    }
+
+    /*
+     * Store the validators of a response, or forget the url when the response had neither.
+     */
+    public static void save(String url, String eTag, String lastModified) {
+        if (eTag == null && lastModified == null) {
+            clear(url);
+            return;
+        }
+        HttpValidator validator = findByUrl(url);
+        if (validator == null) {
+            validator = new HttpValidator();
+            validator.mUrl = url;
+        }
+        validator.mETag = eTag;
+        validator.mLastModified = lastModified;
+        validator.save();
+    }
+
+    public static void clear(String url) {
+        new Delete().from(HttpValidator.class).where("Url = ?", url).execute();
+    }
+
+    /*
+     * Forget every url that starts with urlPrefix, such as the endpoint of a project.
+     */
+    public static void clearUnder(String urlPrefix) {
+        new Delete().from(HttpValidator.class)
+                .where("substr(Url, 1, ?) = ?", urlPrefix.length(), urlPrefix).execute();
+    }
+
+    public static void clearAll() {
+        new Delete().from(HttpValidator.class).execute();
+    }
+
+    public String getETag() {
+        return mETag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+}
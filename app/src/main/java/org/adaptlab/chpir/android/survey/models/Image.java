@@ -24,6 +24,10 @@ public class Image extends ReceiveModel {
     private Question mQuestion;
     @Column(name = "BitmapPath")
     private String mBitmapPath;
+    @Column(name = "Checksum")
+    private String mChecksum;
+    @Column(name = "StoredPhotoUrl")
+    private String mStoredPhotoUrl;
     
     public Image() {
     	super();
@@ -84,6 +88,25 @@ public class Image extends ReceiveModel {
 		return mBitmapPath;
 	}
 
+	public void setChecksum(String checksum) {
+		mChecksum = checksum;
+	}
+
+	public String getChecksum() {
+		return mChecksum;
+	}
+
+	/*
+	 * The photo url that the file at BitmapPath was downloaded from.
+	 */
+	public void setStoredPhotoUrl(String photoUrl) {
+		mStoredPhotoUrl = photoUrl;
+	}
+
+	public String getStoredPhotoUrl() {
+		return mStoredPhotoUrl;
+	}
+
 	private static Image findByRemoteId(Long remoteId) {
 		return new Select().from(Image.class).where("RemoteId = ?", remoteId).executeSingle();
 	}
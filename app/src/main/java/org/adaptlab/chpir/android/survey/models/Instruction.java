@@ -7,6 +7,7 @@ import com.activeandroid.annotation.Table;
 import com.activeandroid.query.Select;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModel;
+import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModelCache;
 import org.adaptlab.chpir.android.survey.BuildConfig;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.json.JSONArray;
@@ -69,7 +70,8 @@ public class Instruction extends ReceiveModel {
     }
 
     public static Instruction findByRemoteId(Long id) {
-        return new Select().from(Instruction.class).where("RemoteId = ?", id).executeSingle();
+        return ReceiveModelCache.find(Instruction.class, id, new Select().from(Instruction.class)
+                .where("RemoteId = ?", id));
     }
 
     public static Instruction findByText(String text) {
@@ -16,6 +16,7 @@ import com.activeandroid.annotation.Table;
 import com.activeandroid.query.Select;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModel;
+import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModelCache;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.apache.commons.lang3.RandomUtils;
 import org.json.JSONArray;
@@ -110,7 +111,8 @@ public class Instrument extends ReceiveModel {
     }
 
     public static Instrument findByRemoteId(Long id) {
-        return new Select().from(Instrument.class).where("RemoteId = ?", id).executeSingle();
+        return ReceiveModelCache.find(Instrument.class, id, new Select().from(Instrument.class)
+                .where("RemoteId = ?", id));
     }
 
     public boolean loaded() {
@@ -6,7 +6,9 @@ import com.activeandroid.annotation.Column;
 import com.activeandroid.annotation.Table;
 import com.activeandroid.query.Select;
 
+import org.adaptlab.chpir.android.activerecordcloudsync.BulkUpsert;
 import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModel;
+import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModelCache;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -36,7 +38,8 @@ public class Option extends ReceiveModel {
     }
 
     public static Option findByRemoteId(Long id) {
-        return new Select().from(Option.class).where("RemoteId = ?", id).executeSingle();
+        return ReceiveModelCache.find(Option.class, id, new Select().from(Option.class)
+                .where("RemoteId = ?", id));
     }
 
     /*
@@ -76,12 +79,8 @@ public class Option extends ReceiveModel {
     public void createObjectFromJSON(JSONObject jsonObject) {
         try {
             Long remoteId = jsonObject.getLong("id");
-
-            // If an option already exists, update it from the remote
-            Option option = Option.findByRemoteId(remoteId);
-            if (option == null) {
-                option = this;
-            }
+            // An existing option is updated in place by upsert()
+            Option option = this;
             option.setRemoteId(remoteId);
 
             if (AppUtil.DEBUG) Log.i(TAG, "Creating object from JSON Object: " + jsonObject);
@@ -92,7 +91,7 @@ public class Option extends ReceiveModel {
                 option.setDeleted(true);
             }
             option.setIdentifier(jsonObject.optString("identifier"));
-            option.save();
+            option.upsert();
 
             // Generate translations
             JSONArray translationsArray = jsonObject.optJSONArray("option_translations");
@@ -100,15 +99,12 @@ public class Option extends ReceiveModel {
                 for (int i = 0; i < translationsArray.length(); i++) {
                     JSONObject translationJSON = translationsArray.getJSONObject(i);
                     Long translationRemoteId = translationJSON.getLong("id");
-                    OptionTranslation translation = OptionTranslation.findByRemoteId(translationRemoteId);
-                    if (translation == null) {
-                        translation = new OptionTranslation();
-                    }
+                    OptionTranslation translation = new OptionTranslation();
                     translation.setRemoteId(translationRemoteId);
                     translation.setLanguage(translationJSON.getString("language"));
                     translation.setOption(option);
                     translation.setText(translationJSON.getString("text"));
-                    translation.save();
+                    BulkUpsert.upsert(translation);
                 }
             }
         } catch (JSONException je) {
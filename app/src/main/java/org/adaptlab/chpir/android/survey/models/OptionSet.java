@@ -8,6 +8,7 @@ import com.activeandroid.query.Delete;
 import com.activeandroid.query.Select;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModel;
+import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModelCache;
 import org.adaptlab.chpir.android.survey.BuildConfig;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -31,7 +32,8 @@ public class OptionSet extends ReceiveModel {
     private String mInstructions;
 
     public static OptionSet findByRemoteId(Long id) {
-        return new Select().from(OptionSet.class).where("RemoteId = ?", id).executeSingle();
+        return ReceiveModelCache.find(OptionSet.class, id, new Select().from(OptionSet.class)
+                .where("RemoteId = ?", id));
     }
 
     public static List<OptionSet> getAll() {
@@ -0,0 +1,264 @@
+package org.adaptlab.chpir.android.survey.models;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.activeandroid.Cache;
+import com.activeandroid.Model;
+import com.activeandroid.annotation.Column;
+import com.activeandroid.annotation.Table;
+import com.activeandroid.query.Select;
+import com.activeandroid.query.Update;
+
+import org.adaptlab.chpir.android.activerecordcloudsync.SendModel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/*
+ * A SendModel waiting to be posted to RemoteTable. Entries survive restarts, so unsent data
+ * is retried with exponential backoff until the remote acknowledges it. IdempotencyKey is
+ * sent with every attempt so that the remote can ignore a retry of a post it already stored.
+ *
+ * State is PENDING until the first attempt, IN_FLIGHT while a post is outstanding and RETRY
+ * after a failed attempt. An entry is deleted once its model is sent. NextAttemptAt is also
+ * pushed back while in flight, so an attempt lost with the process is retried later.
+ * DEFERRED entries wait for an unmetered network or a charger without using up attempts.
+ */
+@Table(name = "OutboxEntries")
+public class OutboxEntry extends Model {
+    private static final String TAG = "OutboxEntry";
+    public static final String PENDING = "pending";
+    public static final String IN_FLIGHT = "in_flight";
+    public static final String RETRY = "retry";
+    public static final String DEFERRED = "deferred";
+    private static final long INITIAL_BACKOFF_MILLIS = 30 * 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60 * 60 * 1000;
+    private static final long IN_FLIGHT_LEASE_MILLIS = 5 * 60 * 1000;
+    private static final int MAX_QUERY_VARIABLES = 500;
+    private static final Random sRandom = new Random();
+
+    @Column(name = "ModelClass")
+    private String mModelClass;
+    @Column(name = "ModelId")
+    private Long mModelId;
+    @Column(name = "RemoteTable")
+    private String mRemoteTable;
+    @Column(name = "IdempotencyKey")
+    private String mIdempotencyKey;
+    @Column(name = "State")
+    private String mState;
+    @Column(name = "Attempts")
+    private int mAttempts;
+    @Column(name = "NextAttemptAt")
+    private long mNextAttemptAt;
+    @Column(name = "LastError")
+    private String mLastError;
+
+    public OutboxEntry() {
+        super();
+    }
+
+    /*
+     * The entry of element, created due now if element is not in the outbox yet.
+     */
+    public static OutboxEntry enqueue(SendModel element, String remoteTable) {
+        OutboxEntry entry = findByModel(element, remoteTable);
+        if (entry == null) {
+            entry = new OutboxEntry();
+            entry.mModelClass = element.getClass().getName();
+            entry.mModelId = element.getId();
+            entry.mRemoteTable = remoteTable;
+            entry.mIdempotencyKey = UUID.randomUUID().toString();
+            entry.mState = PENDING;
+            entry.mNextAttemptAt = System.currentTimeMillis();
+            entry.save();
+        }
+        return entry;
+    }
+
+    public static OutboxEntry findByModel(SendModel element, String remoteTable) {
+        return new Select().from(OutboxEntry.class)
+                .where("ModelClass = ? AND ModelId = ? AND RemoteTable = ?",
+                        element.getClass().getName(), element.getId(), remoteTable)
+                .executeSingle();
+    }
+
+    public static List<OutboxEntry> getDue(long now) {
+        return new Select().from(OutboxEntry.class).where("NextAttemptAt <= ?", now)
+                .orderBy("Id ASC").execute();
+    }
+
+    /*
+     * The entry that is due first, or null if the outbox is empty.
+     */
+    public static OutboxEntry getNext() {
+        return new Select().from(OutboxEntry.class).orderBy("NextAttemptAt ASC")
+                .executeSingle();
+    }
+
+    /*
+     * Make every deferred entry due now.
+     */
+    public static void releaseDeferred() {
+        new Update(OutboxEntry.class).set("NextAttemptAt = ?", System.currentTimeMillis())
+                .where("State = ?", DEFERRED).execute();
+    }
+
+    public static int getCount() {
+        return new Select().from(OutboxEntry.class).count();
+    }
+
+    /*
+     * The models of entries, read with one query per model class instead of a load per
+     * entry. Entries whose model has been deleted since they were enqueued are left out.
+     */
+    public static Map<OutboxEntry, SendModel> getModels(List<OutboxEntry> entries) {
+        Map<String, List<Long>> idsByClass = new HashMap<>();
+        for (OutboxEntry entry : entries) {
+            List<Long> ids = idsByClass.get(entry.mModelClass);
+            if (ids == null) {
+                ids = new ArrayList<>();
+                idsByClass.put(entry.mModelClass, ids);
+            }
+            ids.add(entry.mModelId);
+        }
+        Map<String, Map<Long, SendModel>> modelsByClass = new HashMap<>();
+        for (Map.Entry<String, List<Long>> classIds : idsByClass.entrySet()) {
+            try {
+                modelsByClass.put(classIds.getKey(), findModels(Class.forName(classIds.getKey())
+                        .asSubclass(SendModel.class), classIds.getValue()));
+            } catch (ClassNotFoundException | ClassCastException e) {
+                Log.e(TAG, "Unknown model class " + classIds.getKey(), e);
+            }
+        }
+        Map<OutboxEntry, SendModel> models = new HashMap<>();
+        for (OutboxEntry entry : entries) {
+            Map<Long, SendModel> found = modelsByClass.get(entry.mModelClass);
+            SendModel model = found == null ? null : found.get(entry.mModelId);
+            if (model != null) models.put(entry, model);
+        }
+        return models;
+    }
+
+    /*
+     * The entries of the models of type with the given ids, in one query per
+     * MAX_QUERY_VARIABLES of them.
+     */
+    public static List<OutboxEntry> findByModelIds(Class<? extends SendModel> type,
+                                                   List<Long> ids) {
+        List<OutboxEntry> entries = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += MAX_QUERY_VARIABLES) {
+            List<Long> chunk = ids.subList(i, Math.min(ids.size(), i + MAX_QUERY_VARIABLES));
+            List<Object> args = new ArrayList<Object>(chunk);
+            args.add(0, type.getName());
+            List<OutboxEntry> found = new Select().from(OutboxEntry.class)
+                    .where("ModelClass = ? AND ModelId IN (" + TextUtils.join(",",
+                            Collections.nCopies(chunk.size(), "?")) + ")", args.toArray())
+                    .execute();
+            entries.addAll(found);
+        }
+        return entries;
+    }
+
+    private static Map<Long, SendModel> findModels(Class<? extends SendModel> type,
+                                                   List<Long> ids) {
+        String idName = Cache.getTableInfo(type).getIdName();
+        Map<Long, SendModel> models = new HashMap<>();
+        for (int i = 0; i < ids.size(); i += MAX_QUERY_VARIABLES) {
+            List<Long> chunk = ids.subList(i, Math.min(ids.size(), i + MAX_QUERY_VARIABLES));
+            List<SendModel> found = new Select().from(type)
+                    .where(idName + " IN (" + TextUtils.join(",", Collections.nCopies(
+                            chunk.size(), "?")) + ")", chunk.toArray())
+                    .execute();
+            for (SendModel model : found) {
+                models.put(model.getId(), model);
+            }
+        }
+        return models;
+    }
+
+    public void startAttempt() {
+        mState = IN_FLIGHT;
+        mNextAttemptAt = System.currentTimeMillis() + IN_FLIGHT_LEASE_MILLIS;
+        save();
+    }
+
+    public void defer(long delayMillis) {
+        mState = DEFERRED;
+        mNextAttemptAt = System.currentTimeMillis() + delayMillis;
+        save();
+    }
+
+    /*
+     * Put this entry off until entry, which has to be sent first, is next attempted.
+     */
+    public void waitFor(OutboxEntry entry) {
+        if (entry.mNextAttemptAt > mNextAttemptAt) {
+            mNextAttemptAt = entry.mNextAttemptAt;
+            save();
+        }
+    }
+
+    /*
+     * Schedule the next attempt after a backoff that doubles with every failed attempt, up
+     * to MAX_BACKOFF_MILLIS. Each wait is jittered so that entries which failed together
+     * are not all retried at the same instant.
+     */
+    public void fail(String error) {
+        mAttempts++;
+        mState = RETRY;
+        mLastError = error;
+        mNextAttemptAt = System.currentTimeMillis() + getBackoffMillis();
+        save();
+    }
+
+    /*
+     * Put off an entry that could not be attempted, by the backoff of its last attempt,
+     * without using up an attempt.
+     */
+    public void postpone(String error) {
+        mLastError = error;
+        mNextAttemptAt = System.currentTimeMillis() + getBackoffMillis();
+        save();
+    }
+
+    private long getBackoffMillis() {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS,
+                INITIAL_BACKOFF_MILLIS << Math.min(Math.max(mAttempts, 1) - 1, 16));
+        return backoff / 2 + (long) (sRandom.nextDouble() * (backoff / 2));
+    }
+
+    public Long getModelId() {
+        return mModelId;
+    }
+
+    public String getRemoteTable() {
+        return mRemoteTable;
+    }
+
+    public String getIdempotencyKey() {
+        return mIdempotencyKey;
+    }
+
+    public String getState() {
+        return mState;
+    }
+
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    public long getNextAttemptAt() {
+        return mNextAttemptAt;
+    }
+
+    public String getLastError() {
+        return mLastError;
+    }
+}
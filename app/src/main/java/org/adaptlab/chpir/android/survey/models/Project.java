@@ -20,6 +20,8 @@ public class Project extends ReceiveModel {
     private Long mRemoteId;
     @Column(name = "Description")
     private String mDescription;
+    @Column(name = "UploadPolicy")
+    private String mUploadPolicy;
 
     @Override
     public void createObjectFromJSON(JSONObject jsonObject) {
@@ -32,6 +34,8 @@ public class Project extends ReceiveModel {
             project.setRemoteId(remoteId);
             project.setName(jsonObject.getString("name"));
             project.setDescription(jsonObject.getString("description"));
+            project.setUploadPolicy(jsonObject.isNull("upload_policy") ? null :
+                    jsonObject.get("upload_policy").toString());
             project.save();
         } catch (JSONException je) {
             Log.e(TAG, "Error parsing object json", je);
@@ -58,4 +62,15 @@ public class Project extends ReceiveModel {
         mDescription = description;
     }
 
+    /*
+     * JSON of the project's UploadPolicy, or null for the default policy.
+     */
+    public String getUploadPolicy() {
+        return mUploadPolicy;
+    }
+
+    private void setUploadPolicy(String uploadPolicy) {
+        mUploadPolicy = uploadPolicy;
+    }
+
 }
\ No newline at end of file
@@ -8,7 +8,9 @@ import com.activeandroid.annotation.Column;
 import com.activeandroid.annotation.Table;
 import com.activeandroid.query.Select;
 
+import org.adaptlab.chpir.android.activerecordcloudsync.BulkUpsert;
 import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModel;
+import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModelCache;
 import org.adaptlab.chpir.android.survey.BuildConfig;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.adaptlab.chpir.android.survey.utils.FormatUtils;
@@ -96,8 +98,8 @@ public class Question extends ReceiveModel {
 
     public static Question findByQuestionIdentifier(String identifier) {
         if (identifier == null) return null;
-        return new Select().from(Question.class).where("QuestionIdentifier = ?", identifier)
-                .executeSingle();
+        return ReceiveModelCache.find(Question.class, identifier, new Select()
+                .from(Question.class).where("QuestionIdentifier = ?", identifier));
     }
 
     static Question copyAttributes(Question destination, Question source) {
@@ -122,7 +124,8 @@ public class Question extends ReceiveModel {
     }
 
     public static Question findByRemoteId(Long id) {
-        return new Select().from(Question.class).where("RemoteId = ?", id).executeSingle();
+        return ReceiveModelCache.find(Question.class, id, new Select().from(Question.class)
+                .where("RemoteId = ?", id));
     }
 
     static boolean validQuestionType(String questionType) {
@@ -408,11 +411,10 @@ public class Question extends ReceiveModel {
     public void createObjectFromJSON(JSONObject jsonObject) {
         try {
             Long remoteId = jsonObject.getLong("id");
-            // If a question already exists, update it from the remote
-            Question question = Question.findByRemoteId(remoteId);
-            if (question == null) {
-                question = this;
-            }
+            // An existing question is updated in place, keeping its local columns and the
+            // columns whose values are missing from jsonObject
+            Question question = this;
+            List<String> keptColumns = new ArrayList<>();
             question.setRemoteId(remoteId);
             if (AppUtil.DEBUG) Log.i(TAG, "Creating object from JSON Object: " + jsonObject);
             question.setText(jsonObject.getString("text"));
@@ -426,6 +428,9 @@ public class Question extends ReceiveModel {
             if (!jsonObject.isNull("number_in_instrument")) {
                 question.setNumberInInstrument(jsonObject.getInt("number_in_instrument"));
                 question.setPosition(jsonObject.optString("number_in_instrument"));
+            } else {
+                keptColumns.add("NumberInInstrument");
+                keptColumns.add("Position");
             }
             question.setInstruction(jsonObject.optLong("instruction_id"));
             question.setQuestionVersion(jsonObject.getInt("question_version"));
@@ -440,11 +445,13 @@ public class Question extends ReceiveModel {
             question.setTableIdentifier(jsonObject.getString("table_identifier"));
             if (!jsonObject.isNull("validation_id")) {
                 question.setValidationId(jsonObject.getLong("validation_id"));
+            } else {
+                keptColumns.add("ValidationId");
             }
             question.setRankResponses(jsonObject.optBoolean("rank_responses"));
             question.setLoopQuestionCount(jsonObject.optInt("loop_question_count", 0));
             question.setQuestionId(jsonObject.optLong("question_id"));
-            question.save();
+            BulkUpsert.upsert(question, keptColumns.toArray(new String[keptColumns.size()]));
 
             // Generate translations
             JSONArray translationsArray = jsonObject.optJSONArray("question_translations");
@@ -452,15 +459,12 @@ public class Question extends ReceiveModel {
                 for (int i = 0; i < translationsArray.length(); i++) {
                     JSONObject translationJSON = translationsArray.getJSONObject(i);
                     Long translationRemoteId = translationJSON.getLong("id");
-                    QuestionTranslation translation = QuestionTranslation.findByRemoteId(translationRemoteId);
-                    if (translation == null) {
-                        translation = new QuestionTranslation();
-                    }
+                    QuestionTranslation translation = new QuestionTranslation();
                     translation.setRemoteId(translationRemoteId);
                     translation.setLanguage(translationJSON.getString("language"));
                     translation.setText(translationJSON.getString("text"));
                     translation.setQuestionId(jsonObject.optLong("question_id"));
-                    translation.save();
+                    BulkUpsert.upsert(translation);
                 }
             }
             if (question.getLoopQuestionCount() > 0) {
@@ -649,6 +653,12 @@ public class Question extends ReceiveModel {
         return new Select().from(Image.class).where("Question = ?", getId()).execute();
     }
 
+    @Override
+    public String[] localColumns() {
+        return new String[]{"Grid", "Section", "NumberInGrid", "LoopSource", "LoopNumber",
+                "TextToReplace"};
+    }
+
     public Long getRemoteId() {
         return mRemoteId;
     }
@@ -712,8 +722,7 @@ public class Question extends ReceiveModel {
 
     public Validation getValidation() {
         if (mValidationId == null) return null;
-        return new Select().from(Validation.class).where("RemoteId = ?",
-                mValidationId).executeSingle();
+        return Validation.findByRemoteId(mValidationId);
     }
 
     public boolean isOtherQuestionType() {
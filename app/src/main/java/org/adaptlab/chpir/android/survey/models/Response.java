@@ -6,13 +6,16 @@ import android.util.Log;
 import com.activeandroid.annotation.Column;
 import com.activeandroid.annotation.Table;
 import com.activeandroid.query.Select;
+import com.activeandroid.query.Update;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.SendModel;
 import org.adaptlab.chpir.android.survey.utils.AuthUtils;
 import org.adaptlab.chpir.android.survey.verhoeff.ParticipantIdValidator;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -54,6 +57,8 @@ public class Response extends SendModel {
     private String mRandomizedData;
     @Column(name = "RankOrder")
     private String mRankOrder;
+    @Column(name = "DraftChecksum")
+    private String mDraftChecksum;
 
     public Response() {
         super();
@@ -168,29 +173,61 @@ public class Response extends SendModel {
 
         try {
             JSONObject jsonObject = new JSONObject();
-            jsonObject.put("survey_uuid", (getSurvey() == null) ? getSurveyUUID() : getSurvey().getUUID());
-            jsonObject.put("question_id", getQuestion().getRemoteId());
-            jsonObject.put("text", getText());
-            jsonObject.put("other_response", getOtherResponse());
-            jsonObject.put("special_response", getSpecialResponse());
-            jsonObject.put("time_started", getTimeStarted());
-            jsonObject.put("time_ended", getTimeEnded());
-            jsonObject.put("question_identifier", getQuestion().getQuestionIdentifier());
-            jsonObject.put("uuid", getUUID());
-            jsonObject.put("question_version", getQuestionVersion());
-            jsonObject.put("randomized_data", getRandomizedData());
-            jsonObject.put("rank_order", getRankOrder());
-            if (getDeviceUser() != null) {
-                jsonObject.put("device_user_id", getDeviceUser().getRemoteId());
-            }
-
+            writeFields(SurveySerializer.fieldsOf(jsonObject));
             json.put("response", jsonObject);
-        } catch (JSONException je) {
-            Log.e(TAG, "JSON exception", je);
+        } catch (JSONException | IOException e) {
+            Log.e(TAG, "JSON exception", e);
         }
         return json;
     }
 
+    /*
+     * The fields of toJSON(), also streamed by SurveySerializer.
+     */
+    void writeFields(SurveySerializer.Fields fields) throws IOException {
+        Question question = getQuestion();
+        fields.put("survey_uuid", getSurveyUUID());
+        if (question != null) fields.put("question_id", question.getRemoteId());
+        fields.put("text", getText());
+        fields.put("other_response", getOtherResponse());
+        fields.put("special_response", getSpecialResponse());
+        fields.put("time_started", getTimeStarted());
+        fields.put("time_ended", getTimeEnded());
+        if (question != null) {
+            fields.put("question_identifier", question.getQuestionIdentifier());
+        }
+        fields.put("uuid", getUUID());
+        fields.put("question_version", getQuestionVersion());
+        fields.put("randomized_data", getRandomizedData());
+        fields.put("rank_order", getRankOrder());
+        if (getDeviceUser() != null) {
+            fields.put("device_user_id", getDeviceUser().getRemoteId());
+        }
+    }
+
+    /*
+     * Identifies the content of toJSON(), so that a response already uploaded as a draft is
+     * not uploaded again unless it was edited since.
+     */
+    public String getContentChecksum() {
+        return DigestUtils.sha256Hex(toJSON().toString());
+    }
+
+    public boolean isDraftSent() {
+        return mDraftChecksum != null && mDraftChecksum.equals(getContentChecksum());
+    }
+
+    /*
+     * Record that the remote holds the draft with checksum. Only that column is written, so
+     * an older copy of the response cannot overwrite later edits or bring back a response
+     * that has since been deleted.
+     */
+    public void setDraftChecksum(String checksum) {
+        mDraftChecksum = checksum;
+        new Update(Response.class).set("DraftChecksum = ?", checksum)
+                .where("Id = ?", getId()).execute();
+    }
+
     public String getOtherResponse() {
         return mOtherResponse;
     }
@@ -227,7 +264,7 @@ public class Response extends SendModel {
         return mUUID;
     }
 
-    private int getQuestionVersion() {
+    int getQuestionVersion() {
         return mQuestionVersion;
     }
 
@@ -1,26 +1,32 @@
 package org.adaptlab.chpir.android.survey.models;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.util.Base64;
+import android.util.Base64OutputStream;
 import android.util.Log;
 
 import com.activeandroid.annotation.Column;
 import com.activeandroid.annotation.Table;
 import com.activeandroid.query.Select;
 
+import org.adaptlab.chpir.android.activerecordcloudsync.Attachment;
 import org.adaptlab.chpir.android.activerecordcloudsync.SendModel;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Table(name = "ResponsePhotos")
-public class ResponsePhoto extends SendModel implements Serializable {
+public class ResponsePhoto extends SendModel implements Attachment, Serializable {
     private static final long serialVersionUID = 1L;
     private static final String TAG = "ResponsePhoto";
     @Column(name = "SentToRemote")
@@ -58,25 +64,78 @@ public class ResponsePhoto extends SendModel implements Serializable {
         return json;
     }
 
-    private String getEncodedImage() {
-        String encodedImage = "";
-        if (getPicturePath() != null && !getPicturePath().equals("")) {
-            String filepath = AppUtil.getContext().getFileStreamPath(getPicturePath()).getAbsolutePath();
-            Bitmap bitmap = BitmapFactory.decodeFile(filepath);
-            encodedImage = encodeImage(bitmap);
-        } else {
-            encodedImage = null;
+    /*
+     * Posted once the picture has been uploaded on its own as uploadId.
+     */
+    @Override
+    public JSONObject toJSON(String uploadId) {
+        JSONObject json = new JSONObject();
+
+        try {
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("response_uuid", getResponse().getUUID());
+            jsonObject.put("upload_id", uploadId);
+            json.put("response_image", jsonObject);
+        } catch (JSONException je) {
+            Log.e(TAG, "JSON exception", je);
         }
-        return encodedImage;
+        return json;
     }
 
-    private String encodeImage(Bitmap bitmap) {
-        String encodedImage;
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-        byte[] pictureBytes = outputStream.toByteArray();
-        encodedImage = Base64.encodeToString(pictureBytes, Base64.DEFAULT);
-        return encodedImage;
+    /*
+     * Fields sent alongside the picture file when it is uploaded as multipart form data.
+     */
+    public Map<String, String> toMultipartFields() {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("response_image[response_uuid]", getResponse().getUUID());
+        return fields;
+    }
+
+    /*
+     * The stored picture, or null if there is none.
+     */
+    public File getPictureFile() {
+        if (getPicturePath() == null || getPicturePath().equals("")) return null;
+        File file = AppUtil.getContext().getFileStreamPath(getPicturePath());
+        return file.isFile() ? file : null;
+    }
+
+    @Override
+    public File getAttachmentFile() {
+        return getPictureFile();
+    }
+
+    @Override
+    public String getAttachmentType() {
+        return "image/jpeg";
+    }
+
+    /*
+     * The stored JPEG Base64 encoded as is, for remotes that do not accept multipart uploads.
+     */
+    private String getEncodedImage() {
+        File file = getPictureFile();
+        if (file == null) return null;
+        ByteArrayOutputStream outputStream =
+                new ByteArrayOutputStream((int) (file.length() * 4 / 3 + 64));
+        try {
+            InputStream in = new FileInputStream(file);
+            Base64OutputStream out = new Base64OutputStream(outputStream, Base64.DEFAULT);
+            try {
+                int bytesRead;
+                byte[] buffer = new byte[8192];
+                while ((bytesRead = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, bytesRead);
+                }
+            } finally {
+                in.close();
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read " + file, e);
+            return null;
+        }
+        return outputStream.toString();
     }
 
     @Override
@@ -87,7 +146,7 @@ public class ResponsePhoto extends SendModel implements Serializable {
     @Override
     public boolean readyToSend() {
         if (getResponse() == null) {
-            return getEncodedImage() != null;
+            return getPictureFile() != null;
         } else {
             return getResponse().getSurvey().readyToSend();
         }
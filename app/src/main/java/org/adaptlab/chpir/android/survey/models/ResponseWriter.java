@@ -0,0 +1,212 @@
+package org.adaptlab.chpir.android.survey.models;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.activeandroid.ActiveAndroid;
+import com.activeandroid.Cache;
+import com.activeandroid.Model;
+import com.activeandroid.TableInfo;
+
+import org.adaptlab.chpir.android.activerecordcloudsync.DatabaseConfig;
+import org.adaptlab.chpir.android.activerecordcloudsync.DraftUpload;
+import org.adaptlab.chpir.android.survey.BuildConfig;
+import org.adaptlab.chpir.android.survey.utils.AppUtil;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Write-behind saves of the responses being answered and their survey. save(...) only queues
+ * the records and returns; a single background thread writes them every COMMIT_INTERVAL_MS in
+ * one transaction. A record queued again before it is written is written once, so a response
+ * edited on every keystroke and the survey saved along with it cost one write per commit.
+ *
+ * save(...) copies each record as it is queued and the writer saves the copy, so it never
+ * reads a record while the UI is changing it. Once a new record's copy is inserted, the
+ * record itself takes its id.
+ *
+ * The Survey finders of responses add the queued responses to what they read, see
+ * getQueued(...), rather than flushing. Anything that needs the records in the database,
+ * such as a task that enqueues them for upload, or that leaves the survey calls flush(),
+ * which writes the queued records on the calling thread. flush() must not be called inside
+ * a transaction: the writer holds its commit lock while it waits for the database, so the
+ * two would wait for each other.
+ */
+public class ResponseWriter {
+    private static final String TAG = "ResponseWriter";
+    private static final long COMMIT_INTERVAL_MS = 500;
+    private static ResponseWriter sResponseWriter;
+
+    private final Handler mHandler;
+    private final Object mCommitLock = new Object();
+    private final List<Model> mPending = new ArrayList<>();
+    // The copy of each pending model taken when it was last queued. Models compare by id,
+    // which a response only has once it is first saved.
+    private final Map<Model, Model> mCopies = new IdentityHashMap<>();
+    private boolean mCommitScheduled;
+
+    private final Runnable mCommit = new Runnable() {
+        public void run() {
+            commit();
+        }
+    };
+
+    private ResponseWriter() {
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    private static synchronized ResponseWriter getInstance() {
+        if (sResponseWriter == null) sResponseWriter = new ResponseWriter();
+        return sResponseWriter;
+    }
+
+    /*
+     * Queue response and survey to be saved. Either may be null.
+     */
+    public static void save(Response response, Survey survey) {
+        getInstance().enqueue(response, survey);
+    }
+
+    /*
+     * Save everything queued before returning. Not to be called inside a transaction.
+     */
+    public static void flush() {
+        getInstance().commit();
+    }
+
+    /*
+     * The responses of the survey with surveyUUID that are queued but may not be written yet.
+     */
+    public static List<Response> getQueued(String surveyUUID) {
+        return getInstance().findQueued(surveyUUID);
+    }
+
+    private synchronized List<Response> findQueued(String surveyUUID) {
+        List<Response> responses = new ArrayList<>();
+        for (Model model : mPending) {
+            if (model instanceof Response &&
+                    surveyUUID.equals(((Response) model).getSurveyUUID())) {
+                responses.add((Response) model);
+            }
+        }
+        return responses;
+    }
+
+    private synchronized void enqueue(Model... models) {
+        for (Model model : models) {
+            if (model != null && mCopies.put(model, copy(model)) == null) mPending.add(model);
+        }
+        if (!mCommitScheduled && !mPending.isEmpty()) {
+            mCommitScheduled = true;
+            mHandler.postDelayed(mCommit, COMMIT_INTERVAL_MS);
+        }
+    }
+
+    private synchronized List<Write> drain() {
+        mHandler.removeCallbacks(mCommit);
+        mCommitScheduled = false;
+        List<Write> writes = new ArrayList<>();
+        for (Model model : mPending) {
+            writes.add(new Write(model, mCopies.get(model)));
+        }
+        mPending.clear();
+        mCopies.clear();
+        return writes;
+    }
+
+    private void commit() {
+        // Commits do not overlap, so a flush returns only once a commit in progress is written
+        synchronized (mCommitLock) {
+            List<Write> writes = drain();
+            if (writes.isEmpty()) return;
+            long start = System.currentTimeMillis();
+            DatabaseConfig.beginTransaction();
+            try {
+                for (Write write : writes) {
+                    write.save();
+                }
+                ActiveAndroid.setTransactionSuccessful();
+            } finally {
+                ActiveAndroid.endTransaction();
+            }
+            for (Write write : writes) {
+                write.publish();
+                if (write.mCopy instanceof Response) {
+                    DraftUpload.enqueue(AppUtil.getContext(), (Response) write.mCopy);
+                }
+            }
+            if (BuildConfig.DEBUG) Log.i(TAG, "Saved " + writes.size() + " records in " +
+                    (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /*
+     * A model with the values of each of its columns, or the model itself if it cannot be
+     * copied.
+     */
+    private static Model copy(Model model) {
+        try {
+            Model copy = model.getClass().newInstance();
+            for (Field field : Cache.getTableInfo(model.getClass()).getFields()) {
+                field.setAccessible(true);
+                field.set(copy, field.get(model));
+            }
+            return copy;
+        } catch (InstantiationException | IllegalAccessException e) {
+            Log.e(TAG, "Unable to copy " + model, e);
+            return model;
+        }
+    }
+
+    private static void setId(Model model, Long id) {
+        TableInfo tableInfo = Cache.getTableInfo(model.getClass());
+        for (Field field : tableInfo.getFields()) {
+            if (tableInfo.getColumnName(field).equals(tableInfo.getIdName())) {
+                try {
+                    field.setAccessible(true);
+                    field.set(model, id);
+                } catch (IllegalAccessException iae) {
+                    Log.e(TAG, "Unable to set the id of " + model, iae);
+                }
+                return;
+            }
+        }
+    }
+
+    /*
+     * A queued model and the copy of it that is saved.
+     */
+    private static class Write {
+        private final Model mModel;
+        private final Model mCopy;
+
+        Write(Model model, Model copy) {
+            mModel = model;
+            mCopy = copy;
+        }
+
+        void save() {
+            // Copied before an earlier copy of a new model was inserted
+            if (mCopy.getId() == null && mModel.getId() != null) setId(mCopy, mModel.getId());
+            mCopy.save();
+        }
+
+        /*
+         * Give a new model the id of its row, and keep the model rather than its copy in
+         * ActiveAndroid's entity cache so that finders return the instance the UI changes.
+         */
+        void publish() {
+            if (mModel == mCopy) return;
+            if (mModel.getId() == null) setId(mModel, mCopy.getId());
+            Cache.addEntity(mModel);
+        }
+    }
+}
@@ -7,6 +7,7 @@ import com.activeandroid.annotation.Table;
 import com.activeandroid.query.Select;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModel;
+import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModelCache;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -69,20 +70,16 @@ public class Rule extends ReceiveModel {
     }
     
     public static Rule findByRemoteId(Long remoteId) {
-        return new Select().from(Rule.class).where("RemoteId = ?", remoteId).executeSingle();
+        return ReceiveModelCache.find(Rule.class, remoteId, new Select().from(Rule.class)
+                .where("RemoteId = ?", remoteId));
     }
 
     @Override
     public void createObjectFromJSON(JSONObject jsonObject) {
         try {
             Long remoteId = jsonObject.getLong("id");
-            
-            // If a rule already exists, update it from the remote
-            Rule rule = Rule.findByRemoteId(remoteId);
-            if (rule == null) {
-                rule = this;
-            }
-            
+            // An existing rule is updated in place by upsert(), keeping its StoredValues
+            Rule rule = this;
             if (AppUtil.DEBUG) Log.i(TAG, "Creating object from JSON Object: " + jsonObject);
             rule.setRuleType(jsonObject.getString("rule_type"));
             rule.setInstrumentRemoteId(jsonObject.getLong("instrument_id"));
@@ -93,12 +90,17 @@ public class Rule extends ReceiveModel {
             } else {
                 rule.setDeleted(true);
             }
-            rule.save();
+            rule.upsert();
         } catch (JSONException je) {
             Log.e(TAG, "Error parsing object json", je);
         }
     }
     
+    @Override
+    public String[] localColumns() {
+        return new String[]{"StoredValues"};
+    }
+
     public Long getRemoteId() {
         return mRemoteId;
     }
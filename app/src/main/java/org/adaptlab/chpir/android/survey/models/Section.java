@@ -7,6 +7,7 @@ import com.activeandroid.annotation.Table;
 import com.activeandroid.query.Select;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModel;
+import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModelCache;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -146,7 +147,8 @@ public class Section extends ReceiveModel {
     }
 
 	public static Section findByRemoteId(Long remoteId) {
-		return new Select().from(Section.class).where("RemoteId = ?", remoteId).executeSingle();
+		return ReceiveModelCache.find(Section.class, remoteId, new Select().from(Section.class)
+				.where("RemoteId = ?", remoteId));
 	}
 	
 	public static List<Section> getAll() {
@@ -19,10 +19,15 @@ import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /*
@@ -33,6 +38,7 @@ import java.util.UUID;
 @Table(name = "Surveys", id = BaseColumns._ID)
 public class Survey extends SendModel {
     private static final String TAG = "Survey";
+    private static final int MAX_QUERY_VARIABLES = 500;
 
     @Column(name = "UUID")
     private String mUUID;
@@ -81,30 +87,39 @@ public class Survey extends SendModel {
 
         try {
             JSONObject jsonObject = new JSONObject();
-            jsonObject.put("instrument_id", getInstrument().getRemoteId());
-            jsonObject.put("instrument_version_number", getInstrument().getVersionNumber());
-            jsonObject.put("device_uuid", getAdminInstanceDeviceIdentifier());
-            jsonObject.put("device_label", AppUtil.getAdminSettingsInstance().getDeviceLabel());
-            jsonObject.put("uuid", mUUID);
-            jsonObject.put("instrument_title", getInstrument().getTitle());
-            jsonObject.put("latitude", mLatitude);
-            jsonObject.put("longitude", mLongitude);
-            jsonObject.put("metadata", mMetadata);
-            jsonObject.put("skipped_questions", getSkippedQuestions());
-            if (mRosterUUID != null) {
-                jsonObject.put("roster_uuid", mRosterUUID);
-            }
-            jsonObject.put("language", mLanguage);
-            jsonObject.put("completed_responses_count", mCompletedResponseCount);
+            AdminSettings adminSettings = AppUtil.getAdminSettingsInstance();
+            writeFields(SurveySerializer.fieldsOf(jsonObject), getInstrument(),
+                    adminSettings.getDeviceIdentifier(), adminSettings.getDeviceLabel());
             json.put("survey", jsonObject);
-        } catch (JSONException je) {
-            Log.e(TAG, "JSON exception", je);
+        } catch (JSONException | IOException e) {
+            Log.e(TAG, "JSON exception", e);
         }
         return json;
     }
 
-    private String getAdminInstanceDeviceIdentifier() {
-        return AppUtil.getAdminSettingsInstance().getDeviceIdentifier();
+    /*
+     * The fields of toJSON(), also streamed by SurveySerializer with the instrument and
+     * device identity it has already loaded.
+     */
+    void writeFields(SurveySerializer.Fields fields, Instrument instrument,
+                     String deviceIdentifier, String deviceLabel) throws IOException {
+        if (instrument == null) {
+            throw new IOException("No instrument " + mInstrumentRemoteId + " for survey " +
+                    mUUID);
+        }
+        fields.put("instrument_id", instrument.getRemoteId());
+        fields.put("instrument_version_number", instrument.getVersionNumber());
+        fields.put("device_uuid", deviceIdentifier);
+        fields.put("device_label", deviceLabel);
+        fields.put("uuid", mUUID);
+        fields.put("instrument_title", instrument.getTitle());
+        fields.put("latitude", mLatitude);
+        fields.put("longitude", mLongitude);
+        fields.put("metadata", mMetadata);
+        fields.put("skipped_questions", getSkippedQuestions());
+        fields.put("roster_uuid", mRosterUUID);
+        fields.put("language", mLanguage);
+        fields.put("completed_responses_count", mCompletedResponseCount);
     }
 
     @Override
@@ -159,6 +174,13 @@ public class Survey extends SendModel {
      * Finders
      */
     public Response getResponseByQuestion(Question question) {
+        // Responses queued by ResponseWriter are newer than their rows
+        for (Response response : ResponseWriter.getQueued(getUUID())) {
+            if (response.getQuestion() != null &&
+                    response.getQuestion().getId().equals(question.getId())) {
+                return response;
+            }
+        }
         return new Select().from(Response.class).where(
                 "Question = ? AND SurveyUUID = ?",
                 question.getId(), getUUID()).executeSingle();
@@ -200,45 +222,54 @@ public class Survey extends SendModel {
         return new Select().from(Survey.class).where("UUID = ?", uuid).executeSingle();
     }
 
+    /*
+     * The surveys with the given UUIDs keyed by UUID, read in one query per
+     * MAX_QUERY_VARIABLES of them.
+     */
+    public static Map<String, Survey> findByUUIDs(Collection<String> uuids) {
+        List<String> remaining = new ArrayList<>(uuids);
+        Map<String, Survey> surveys = new HashMap<>();
+        for (int i = 0; i < remaining.size(); i += MAX_QUERY_VARIABLES) {
+            List<String> chunk = remaining.subList(i, Math.min(remaining.size(),
+                    i + MAX_QUERY_VARIABLES));
+            List<Survey> found = new Select().from(Survey.class)
+                    .where("UUID IN (" + TextUtils.join(",", Collections.nCopies(chunk.size(),
+                            "?")) + ")", chunk.toArray())
+                    .execute();
+            for (Survey survey : found) {
+                surveys.put(survey.getUUID(), survey);
+            }
+        }
+        return surveys;
+    }
+
     /*
      * Relationships
      */
     public List<Response> responses() {
-        return new Select().from(Response.class)
+        List<Response> responses = new Select().from(Response.class)
                 .where("SurveyUUID = ?", getUUID())
                 .orderBy("TimeEnded")
                 .execute();
+        List<Response> queued = ResponseWriter.getQueued(getUUID());
+        if (queued.isEmpty()) return responses;
+        // Responses queued by ResponseWriter are newer than their rows, or have none yet
+        Map<String, Response> byUUID = new LinkedHashMap<>();
+        for (Response response : responses) {
+            byUUID.put(response.getUUID(), response);
+        }
+        for (Response response : queued) {
+            byUUID.put(response.getUUID(), response);
+        }
+        return new ArrayList<>(byUUID.values());
     }
 
     public List<Response> emptyResponses() {
-        List<Response> responses = new Select()
-                .from(Response.class)
-                .where("SurveyUUID = ? AND (Text IS null OR Text = '') " +
-                        "AND (SpecialResponse IS null OR SpecialResponse = '') " +
-                        "AND (Other_Response IS null OR Other_Response = '')", getUUID())
-                .execute();
-        Iterator<Response> responseIterator = responses.iterator();
-        while (responseIterator.hasNext()) {
-            Response response = responseIterator.next();
-            if (response.getQuestion().getQuestionType() == Question.QuestionType.INSTRUCTIONS ||
-                    response.getResponsePhoto() != null) {
-                responseIterator.remove();
-            }
-        }
-        return responses;
+        return SurveySnapshot.load(this, null).emptyResponses();
     }
 
     public HashMap<String, Response> responsesMap() {
-        int capacity = (int) Math.ceil(responseCount() / 0.75);
-        HashMap<String, Response> map = new HashMap<>(capacity);
-        for (Response response : responses()) {
-            map.put(response.getQuestion().getQuestionIdentifier(), response);
-        }
-        return map;
-    }
-
-    private int responseCount() {
-        return new Select().from(Response.class).where("SurveyUUID = ?", getUUID()).count();
+        return SurveySnapshot.load(this, null).responsesMap();
     }
 
     public Instrument getInstrument() {
@@ -270,6 +301,10 @@ public class Survey extends SendModel {
     public void setAsSent(Context context) {
         mSent = true;
         this.save();
+        // Responses the remote already holds as drafts were not uploaded with the survey
+        for (Response response : responses()) {
+            if (response.isDraftSent()) response.setAsSent(context);
+        }
     }
 
     @Override
@@ -277,10 +312,18 @@ public class Survey extends SendModel {
         return mComplete;
     }
 
+    public String getLatitude() {
+        return mLatitude;
+    }
+
     public void setLatitude(String latitude) {
         mLatitude = latitude;
     }
 
+    public String getLongitude() {
+        return mLongitude;
+    }
+
     public void setLongitude(String longitude) {
         mLongitude = longitude;
     }
@@ -332,10 +375,14 @@ public class Survey extends SendModel {
         return "";
     }
 
-    private Long getInstrumentRemoteId() {
+    Long getInstrumentRemoteId() {
         return mInstrumentRemoteId;
     }
 
+    public String getRosterUUID() {
+        return mRosterUUID;
+    }
+
     public void setRosterUUID(String uuid) {
         mRosterUUID = uuid;
     }
@@ -349,6 +396,10 @@ public class Survey extends SendModel {
         return mRosterUUID != null;
     }
 
+    public String getLanguage() {
+        return mLanguage;
+    }
+
     public void setLanguage(String language) {
         mLanguage = language;
     }
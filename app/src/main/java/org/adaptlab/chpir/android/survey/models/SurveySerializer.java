@@ -0,0 +1,167 @@
+package org.adaptlab.chpir.android.survey.models;
+
+import android.text.TextUtils;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.activeandroid.query.Select;
+
+import org.adaptlab.chpir.android.activerecordcloudsync.SendModel;
+import org.adaptlab.chpir.android.survey.BuildConfig;
+import org.adaptlab.chpir.android.survey.utils.AppUtil;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Writes the upload JSON of surveys and responses for a whole upload at once. The fields
+ * come from the same writeFields(...) of each model that its toJSON() uses. Everything
+ * toJSON() looks up per record is loaded when the serializer is created: the instruments of
+ * the surveys in one query and the device's identity once. Records are then written with a
+ * JsonWriter, without building a JSONObject tree and without touching the database, so
+ * bodies can be written on a network thread.
+ */
+public class SurveySerializer {
+    private static final String TAG = "SurveySerializer";
+    private static final int MAX_QUERY_VARIABLES = 500;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<Long, Instrument> mInstruments = new HashMap<>();
+    private final String mDeviceIdentifier;
+    private final String mDeviceLabel;
+
+    public SurveySerializer(List<? extends SendModel> elements) {
+        long start = System.currentTimeMillis();
+        Set<Long> instrumentIds = new HashSet<>();
+        for (SendModel element : elements) {
+            if (element instanceof Survey && ((Survey) element).getInstrumentRemoteId() != null) {
+                instrumentIds.add(((Survey) element).getInstrumentRemoteId());
+            }
+        }
+        loadInstruments(new ArrayList<>(instrumentIds));
+        AdminSettings adminSettings = AppUtil.getAdminSettingsInstance();
+        mDeviceIdentifier = adminSettings.getDeviceIdentifier();
+        mDeviceLabel = adminSettings.getDeviceLabel();
+        if (BuildConfig.DEBUG) Log.i(TAG, "Preloaded " + elements.size() + " records in " +
+                (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void loadInstruments(List<Long> remoteIds) {
+        for (int i = 0; i < remoteIds.size(); i += MAX_QUERY_VARIABLES) {
+            List<Long> ids = remoteIds.subList(i, Math.min(remoteIds.size(),
+                    i + MAX_QUERY_VARIABLES));
+            List<Instrument> instruments = new Select().from(Instrument.class)
+                    .where("RemoteId IN (" + TextUtils.join(",", Collections.nCopies(ids.size(),
+                            "?")) + ")", ids.toArray())
+                    .execute();
+            for (Instrument instrument : instruments) {
+                mInstruments.put(instrument.getRemoteId(), instrument);
+            }
+        }
+    }
+
+    public static boolean canWrite(SendModel element) {
+        return element instanceof Survey || element instanceof Response;
+    }
+
+    /*
+     * The UTF-8 JSON of element with idempotencyKey added when it is not null. Throws if a
+     * field the remote requires is missing, such as the instrument of a survey that was not
+     * passed to the constructor.
+     */
+    public byte[] toBytes(SendModel element, String idempotencyKey) throws IOException {
+        if (!canWrite(element)) {
+            JSONObject json = element.toJSON();
+            try {
+                if (idempotencyKey != null) json.put("idempotency_key", idempotencyKey);
+            } catch (JSONException je) {
+                Log.e(TAG, "JSON exception", je);
+            }
+            return json.toString().getBytes(UTF_8);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(bytes, UTF_8));
+        writer.beginObject();
+        if (element instanceof Survey) {
+            writer.name("survey");
+            writeSurvey(writer, (Survey) element);
+        } else {
+            writer.name("response");
+            writeResponse(writer, (Response) element);
+        }
+        put(writer, "idempotency_key", idempotencyKey);
+        writer.endObject();
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private void writeSurvey(JsonWriter writer, Survey survey) throws IOException {
+        writer.beginObject();
+        survey.writeFields(fieldsOf(writer), mInstruments.get(survey.getInstrumentRemoteId()),
+                mDeviceIdentifier, mDeviceLabel);
+        writer.endObject();
+    }
+
+    private void writeResponse(JsonWriter writer, Response response) throws IOException {
+        writer.beginObject();
+        response.writeFields(fieldsOf(writer));
+        writer.endObject();
+    }
+
+    /*
+     * Where a model writes its upload fields: a JSONObject in toJSON(), or an upload body.
+     * Like JSONObject.put(), a null value leaves the name out.
+     */
+    interface Fields {
+        void put(String name, Object value) throws IOException;
+    }
+
+    static Fields fieldsOf(final JSONObject json) {
+        return new Fields() {
+            @Override
+            public void put(String name, Object value) throws IOException {
+                try {
+                    json.put(name, value);
+                } catch (JSONException je) {
+                    throw new IOException(je);
+                }
+            }
+        };
+    }
+
+    private static Fields fieldsOf(final JsonWriter writer) {
+        return new Fields() {
+            @Override
+            public void put(String name, Object value) throws IOException {
+                SurveySerializer.put(writer, name, value);
+            }
+        };
+    }
+
+    /*
+     * A null value leaves the name out and any object other than a number or boolean is
+     * written as its toString(), as in a JSONObject.
+     */
+    private static void put(JsonWriter writer, String name, Object value) throws IOException {
+        if (value == null) return;
+        writer.name(name);
+        if (value instanceof Number) {
+            writer.value((Number) value);
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else {
+            writer.value(value.toString());
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.adaptlab.chpir.android.survey.models;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.activeandroid.Cache;
+import com.activeandroid.TableInfo;
+import com.activeandroid.query.Select;
+
+import org.adaptlab.chpir.android.survey.BuildConfig;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * The responses of a survey with their questions, device users and photos, read with a few
+ * queries instead of the one per response that getQuestion(), getDeviceUser() and
+ * getResponsePhoto() each cost when responses are loaded through ActiveAndroid:
+ *
+ *   Responses       one raw query, with the Question and DeviceUser columns renamed so that
+ *                   ActiveAndroid does not look up their records row by row
+ *   Questions       taken from the instrument's questions when the caller has them, and
+ *                   otherwise read in one query on the questions the responses refer to
+ *   DeviceUsers     one query on the device users the responses refer to
+ *   ResponsePhotos  one query for the ids of the responses that have a photo
+ */
+public class SurveySnapshot {
+    private static final String TAG = "SurveySnapshot";
+    private static final String QUESTION_ID = "SnapshotQuestionId";
+    private static final String DEVICE_USER_ID = "SnapshotDeviceUserId";
+    private static final int MAX_QUERY_VARIABLES = 500;
+
+    private final List<Response> mResponses = new ArrayList<>();
+    private final Set<Long> mPhotoResponseIds = new HashSet<>();
+
+    private SurveySnapshot() {
+    }
+
+    /*
+     * Load the responses of survey in the order they were answered. questions may be null, or
+     * the instrument's questions already loaded by the caller, which are then not read again.
+     * Responses queued by ResponseWriter are only included once the caller has flushed it.
+     */
+    public static SurveySnapshot load(Survey survey, List<Question> questions) {
+        long start = System.currentTimeMillis();
+        SurveySnapshot snapshot = new SurveySnapshot();
+        LongSparseArray<Question> questionsById = new LongSparseArray<>();
+        if (questions == null) {
+            questions = new Select().from(Question.class)
+                    .where("Id IN (SELECT Question FROM Responses WHERE SurveyUUID = ?)",
+                            survey.getUUID())
+                    .execute();
+        }
+        for (Question question : questions) {
+            questionsById.put(question.getId(), question);
+        }
+        LongSparseArray<DeviceUser> deviceUsers = new LongSparseArray<>();
+        List<DeviceUser> users = new Select().from(DeviceUser.class)
+                .where("Id IN (SELECT DeviceUser FROM Responses WHERE SurveyUUID = ?)",
+                        survey.getUUID())
+                .execute();
+        for (DeviceUser user : users) {
+            deviceUsers.put(user.getId(), user);
+        }
+
+        SQLiteDatabase db = Cache.openDatabase();
+        Set<Long> missingQuestionIds = new HashSet<>();
+        HashMap<Response, Long> unresolved = new HashMap<>();
+        Cursor cursor = db.rawQuery("SELECT " + responseColumns() + ", Question AS " +
+                QUESTION_ID + ", DeviceUser AS " + DEVICE_USER_ID + " FROM Responses WHERE " +
+                "SurveyUUID = ? ORDER BY TimeEnded", new String[]{survey.getUUID()});
+        try {
+            int id = cursor.getColumnIndex("Id");
+            int questionId = cursor.getColumnIndex(QUESTION_ID);
+            int deviceUserId = cursor.getColumnIndex(DEVICE_USER_ID);
+            while (cursor.moveToNext()) {
+                // Reuse a record already in the entity cache, as ActiveAndroid does
+                Response response = (Response) Cache.getEntity(Response.class, cursor.getLong(id));
+                if (response == null) response = new Response();
+                response.loadFromCursor(cursor);
+                response.setDeviceUser(cursor.isNull(deviceUserId) ? null :
+                        deviceUsers.get(cursor.getLong(deviceUserId)));
+                if (!cursor.isNull(questionId)) {
+                    Question question = questionsById.get(cursor.getLong(questionId));
+                    if (question == null) {
+                        missingQuestionIds.add(cursor.getLong(questionId));
+                        unresolved.put(response, cursor.getLong(questionId));
+                    }
+                    response.setQuestion(question);
+                } else {
+                    response.setQuestion(null);
+                }
+                snapshot.mResponses.add(response);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Questions left out of the instrument's list, such as deleted ones
+        if (!missingQuestionIds.isEmpty()) {
+            for (Question question : findQuestions(new ArrayList<>(missingQuestionIds))) {
+                questionsById.put(question.getId(), question);
+            }
+            for (Response response : unresolved.keySet()) {
+                response.setQuestion(questionsById.get(unresolved.get(response)));
+            }
+        }
+
+        cursor = db.rawQuery("SELECT Response FROM ResponsePhotos WHERE Response IN (SELECT Id " +
+                "FROM Responses WHERE SurveyUUID = ?)", new String[]{survey.getUUID()});
+        try {
+            while (cursor.moveToNext()) {
+                snapshot.mPhotoResponseIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (BuildConfig.DEBUG) Log.i(TAG, "Loaded " + snapshot.mResponses.size() +
+                " responses in " + (System.currentTimeMillis() - start) + " ms");
+        return snapshot;
+    }
+
+    /*
+     * Every column of Responses except the ones that refer to other records.
+     */
+    private static String responseColumns() {
+        TableInfo tableInfo = Cache.getTableInfo(Response.class);
+        List<String> columns = new ArrayList<>();
+        for (Field field : tableInfo.getFields()) {
+            String column = tableInfo.getColumnName(field);
+            if (!column.equals("Question") && !column.equals("DeviceUser")) {
+                columns.add(column);
+            }
+        }
+        return TextUtils.join(", ", columns);
+    }
+
+    private static List<Question> findQuestions(List<Long> ids) {
+        List<Question> questions = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += MAX_QUERY_VARIABLES) {
+            List<Long> chunk = ids.subList(i, Math.min(ids.size(), i + MAX_QUERY_VARIABLES));
+            List<Question> found = new Select().from(Question.class)
+                    .where("Id IN (" + TextUtils.join(",", Collections.nCopies(chunk.size(),
+                            "?")) + ")", chunk.toArray())
+                    .execute();
+            questions.addAll(found);
+        }
+        return questions;
+    }
+
+    public List<Response> responses() {
+        return mResponses;
+    }
+
+    /*
+     * The responses keyed by the identifier of their question.
+     */
+    public HashMap<String, Response> responsesMap() {
+        HashMap<String, Response> map = new HashMap<>((int) Math.ceil(mResponses.size() / 0.75));
+        for (Response response : mResponses) {
+            if (response.getQuestion() != null) {
+                map.put(response.getQuestion().getQuestionIdentifier(), response);
+            }
+        }
+        return map;
+    }
+
+    public boolean hasPhoto(Response response) {
+        return mPhotoResponseIds.contains(response.getId());
+    }
+
+    /*
+     * Responses with no text, special response or other response, leaving out instructions
+     * and responses that have a photo.
+     */
+    public List<Response> emptyResponses() {
+        List<Response> responses = new ArrayList<>();
+        for (Response response : mResponses) {
+            if (TextUtils.isEmpty(response.getText()) &&
+                    TextUtils.isEmpty(response.getSpecialResponse()) &&
+                    TextUtils.isEmpty(response.getOtherResponse()) &&
+                    !hasPhoto(response) && response.getQuestion() != null &&
+                    response.getQuestion().getQuestionType() !=
+                            Question.QuestionType.INSTRUCTIONS) {
+                responses.add(response);
+            }
+        }
+        return responses;
+    }
+}
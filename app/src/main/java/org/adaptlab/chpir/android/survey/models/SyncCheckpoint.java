@@ -0,0 +1,77 @@
+package org.adaptlab.chpir.android.survey.models;
+
+import com.activeandroid.Model;
+import com.activeandroid.annotation.Column;
+import com.activeandroid.annotation.Table;
+import com.activeandroid.query.Delete;
+import com.activeandroid.query.Select;
+
+/*
+ * Cursor of the next page to download for a remote table whose paginated download was
+ * interrupted. BaseSyncTime is the last_sync_time the pages were requested with, so a
+ * checkpoint is only resumed while the table's watermark still matches it.
+ * PendingSyncTime becomes the table's watermark once the last page is committed.
+ */
+@Table(name = "SyncCheckpoints")
+public class SyncCheckpoint extends Model {
+    @Column(name = "ProjectId")
+    private Long mProjectId;
+    @Column(name = "TableName")
+    private String mTableName;
+    @Column(name = "Cursor")
+    private String mCursor;
+    @Column(name = "BaseSyncTime")
+    private String mBaseSyncTime;
+    @Column(name = "PendingSyncTime")
+    private String mPendingSyncTime;
+
+    public SyncCheckpoint() {
+        super();
+    }
+
+    public static SyncCheckpoint findByTableName(Long projectId, String tableName) {
+        return new Select().from(SyncCheckpoint.class)
+                .where("ProjectId = ? AND TableName = ?", projectId, tableName)
+                .executeSingle();
+    }
+
+    public static void save(Long projectId, String tableName, String cursor, String baseSyncTime,
+                            String pendingSyncTime) {
+        SyncCheckpoint checkpoint = findByTableName(projectId, tableName);
+        if (checkpoint == null) {
+            checkpoint = new SyncCheckpoint();
+            checkpoint.mProjectId = projectId;
+            checkpoint.mTableName = tableName;
+        }
+        checkpoint.mCursor = cursor;
+        checkpoint.mBaseSyncTime = baseSyncTime;
+        checkpoint.mPendingSyncTime = pendingSyncTime;
+        checkpoint.save();
+    }
+
+    public static void clear(Long projectId, String tableName) {
+        new Delete().from(SyncCheckpoint.class)
+                .where("ProjectId = ? AND TableName = ?", projectId, tableName)
+                .execute();
+    }
+
+    public static void reset(Long projectId) {
+        new Delete().from(SyncCheckpoint.class).where("ProjectId = ?", projectId).execute();
+    }
+
+    public static void resetAll() {
+        new Delete().from(SyncCheckpoint.class).execute();
+    }
+
+    public String getCursor() {
+        return mCursor;
+    }
+
+    public String getBaseSyncTime() {
+        return mBaseSyncTime;
+    }
+
+    public String getPendingSyncTime() {
+        return mPendingSyncTime;
+    }
+}
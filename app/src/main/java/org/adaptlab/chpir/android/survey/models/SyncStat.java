@@ -0,0 +1,177 @@
+package org.adaptlab.chpir.android.survey.models;
+
+import android.util.Log;
+
+import com.activeandroid.Model;
+import com.activeandroid.annotation.Column;
+import com.activeandroid.annotation.Table;
+import com.activeandroid.query.Delete;
+import com.activeandroid.query.Select;
+
+import org.adaptlab.chpir.android.survey.BuildConfig;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * Timings of one remote table in one sync or upload, so that a slow sync can be attributed
+ * to the network, JSON parsing or SQLite writes. Only the last MAX_SYNCS syncs are kept.
+ */
+@Table(name = "SyncStats")
+public class SyncStat extends Model {
+    private static final String TAG = "SyncStat";
+    public static final String DOWNLOAD = "download";
+    public static final String UPLOAD = "upload";
+    private static final int MAX_SYNCS = 20;
+
+    @Column(name = "SyncId")
+    private String mSyncId;
+    @Column(name = "Direction")
+    private String mDirection;
+    @Column(name = "TableName")
+    private String mTableName;
+    @Column(name = "Succeeded")
+    private boolean mSucceeded;
+    @Column(name = "FirstByteMillis")
+    private long mFirstByteMillis;
+    @Column(name = "Bytes")
+    private long mBytes;
+    @Column(name = "TransferMillis")
+    private long mTransferMillis;
+    @Column(name = "ParseMillis")
+    private long mParseMillis;
+    @Column(name = "Rows")
+    private int mRows;
+    @Column(name = "CommitMillis")
+    private long mCommitMillis;
+
+    public SyncStat() {
+        super();
+    }
+
+    public SyncStat(String syncId, String direction, String tableName) {
+        super();
+        mSyncId = syncId;
+        mDirection = direction;
+        mTableName = tableName;
+    }
+
+    /*
+     * Save this stat and drop the stats of syncs older than the last MAX_SYNCS.
+     */
+    public void record() {
+        save();
+        new Delete().from(SyncStat.class).where("SyncId NOT IN (SELECT SyncId FROM SyncStats " +
+                "GROUP BY SyncId ORDER BY MAX(Id) DESC LIMIT " + MAX_SYNCS + ")").execute();
+        if (BuildConfig.DEBUG) Log.i(TAG, toString());
+    }
+
+    public static List<SyncStat> getRecent() {
+        return new Select().from(SyncStat.class).orderBy("Id DESC").execute();
+    }
+
+    public static List<SyncStat> getBySyncId(String syncId) {
+        return new Select().from(SyncStat.class).where("SyncId = ?", syncId)
+                .orderBy("Id ASC").execute();
+    }
+
+    /*
+     * Totals of a sync plus its slowest table, for the device sync entry.
+     */
+    public static JSONObject summary(String syncId) {
+        JSONObject json = new JSONObject();
+        if (syncId == null) return json;
+        List<SyncStat> stats = getBySyncId(syncId);
+        long bytes = 0, transferMillis = 0, parseMillis = 0, commitMillis = 0;
+        int rows = 0, failed = 0;
+        SyncStat slowest = null;
+        for (SyncStat stat : stats) {
+            bytes += stat.mBytes;
+            transferMillis += stat.mTransferMillis;
+            parseMillis += stat.mParseMillis;
+            commitMillis += stat.mCommitMillis;
+            rows += stat.mRows;
+            if (!stat.mSucceeded) failed++;
+            if (slowest == null || stat.getTotalMillis() > slowest.getTotalMillis()) {
+                slowest = stat;
+            }
+        }
+        try {
+            json.put("tables", stats.size());
+            json.put("failed_tables", failed);
+            json.put("rows", rows);
+            json.put("bytes", bytes);
+            json.put("transfer_ms", transferMillis);
+            json.put("parse_ms", parseMillis);
+            json.put("commit_ms", commitMillis);
+            if (slowest != null) json.put("slowest_table", slowest.toJSON());
+        } catch (JSONException je) {
+            if (BuildConfig.DEBUG) Log.e(TAG, "JSON exception", je);
+        }
+        return json;
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("table", mTableName);
+        json.put("direction", mDirection);
+        json.put("succeeded", mSucceeded);
+        json.put("first_byte_ms", mFirstByteMillis);
+        json.put("bytes", mBytes);
+        json.put("transfer_ms", mTransferMillis);
+        json.put("parse_ms", mParseMillis);
+        json.put("rows", mRows);
+        json.put("commit_ms", mCommitMillis);
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s %s%s: %d rows, %d B, ttfb %d ms, transfer %d ms, " +
+                        "parse %d ms, commit %d ms", mDirection, mTableName,
+                mSucceeded ? "" : " (failed)", mRows, mBytes, mFirstByteMillis, mTransferMillis,
+                mParseMillis, mCommitMillis);
+    }
+
+    private long getTotalMillis() {
+        return mTransferMillis + mParseMillis + mCommitMillis;
+    }
+
+    public String getSyncId() {
+        return mSyncId;
+    }
+
+    public String getTableName() {
+        return mTableName;
+    }
+
+    public void setSucceeded(boolean succeeded) {
+        mSucceeded = succeeded;
+    }
+
+    public void setFirstByteMillis(long firstByteMillis) {
+        mFirstByteMillis = firstByteMillis;
+    }
+
+    public void addBytes(long bytes) {
+        mBytes += bytes;
+    }
+
+    public void addTransferMillis(long transferMillis) {
+        mTransferMillis += transferMillis;
+    }
+
+    public void addParseMillis(long parseMillis) {
+        mParseMillis += parseMillis;
+    }
+
+    public void addRows(int rows) {
+        mRows += rows;
+    }
+
+    public void addCommitMillis(long commitMillis) {
+        mCommitMillis += commitMillis;
+    }
+}
@@ -0,0 +1,94 @@
+package org.adaptlab.chpir.android.survey.models;
+
+import android.text.TextUtils;
+
+import com.activeandroid.ActiveAndroid;
+import com.activeandroid.Model;
+import com.activeandroid.annotation.Column;
+import com.activeandroid.annotation.Table;
+import com.activeandroid.query.Delete;
+import com.activeandroid.query.Select;
+
+import java.util.Collection;
+
+/*
+ * High-water mark of a single remote table for a project. A table's mark is only advanced
+ * after all of its rows have been committed, so an interrupted sync resumes with the
+ * tables that did not finish instead of downloading everything again.
+ */
+@Table(name = "SyncWatermarks")
+public class SyncWatermark extends Model {
+    @Column(name = "ProjectId")
+    private Long mProjectId;
+    @Column(name = "TableName")
+    private String mTableName;
+    @Column(name = "LastSyncTime")
+    private String mLastSyncTime;
+
+    public SyncWatermark() {
+        super();
+    }
+
+    private static SyncWatermark findByTableName(Long projectId, String tableName) {
+        return new Select().from(SyncWatermark.class)
+                .where("ProjectId = ? AND TableName = ?", projectId, tableName)
+                .executeSingle();
+    }
+
+    public static String getLastSyncTime(Long projectId, String tableName) {
+        SyncWatermark watermark = findByTableName(projectId, tableName);
+        if (watermark == null || watermark.mLastSyncTime == null) return "";
+        return watermark.mLastSyncTime;
+    }
+
+    public static void setLastSyncTime(Long projectId, String tableName, String syncTime) {
+        SyncWatermark watermark = findByTableName(projectId, tableName);
+        if (watermark == null) {
+            watermark = new SyncWatermark();
+            watermark.mProjectId = projectId;
+            watermark.mTableName = tableName;
+        }
+        watermark.mLastSyncTime = syncTime;
+        watermark.save();
+    }
+
+    /*
+     * Start every table in tableNames at lastSyncTime, the single last_sync_time a project
+     * had before its tables had their own marks, so that the first sync after the upgrade
+     * only downloads what changed since. Does nothing once the project has any watermark.
+     */
+    public static void seed(Long projectId, Collection<String> tableNames,
+                            String lastSyncTime) {
+        if (projectId == null || TextUtils.isEmpty(lastSyncTime) ||
+                new Select().from(SyncWatermark.class).where("ProjectId = ?", projectId)
+                        .count() > 0) {
+            return;
+        }
+        ActiveAndroid.beginTransaction();
+        try {
+            for (String tableName : tableNames) {
+                setLastSyncTime(projectId, tableName, lastSyncTime);
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+    }
+
+    /*
+     * Forget what was synced for projectId, so that its next sync downloads every table
+     * again: its watermarks, the checkpoints of its interrupted downloads and the validators
+     * of the urls under endPoint, its api url.
+     */
+    public static void reset(Long projectId, String endPoint) {
+        new Delete().from(SyncWatermark.class).where("ProjectId = ?", projectId).execute();
+        SyncCheckpoint.reset(projectId);
+        if (!TextUtils.isEmpty(endPoint)) HttpValidator.clearUnder(endPoint);
+    }
+
+    public static void resetAll() {
+        new Delete().from(SyncWatermark.class).execute();
+        SyncCheckpoint.resetAll();
+        HttpValidator.clearAll();
+    }
+}
@@ -0,0 +1,94 @@
+package org.adaptlab.chpir.android.survey.models;
+
+import com.activeandroid.Model;
+import com.activeandroid.annotation.Column;
+import com.activeandroid.annotation.Table;
+import com.activeandroid.query.Select;
+
+import org.adaptlab.chpir.android.activerecordcloudsync.SendModel;
+
+/*
+ * A resumable upload of the file of a SendModel. SessionId is assigned by the remote and
+ * UploadedBytes is the number of bytes it has acknowledged, so an upload interrupted by a lost
+ * connection or a restart continues from there instead of sending the whole file again.
+ *
+ * A session only applies to the file it was created for; one whose FilePath or FileSize no
+ * longer match the model's file is discarded.
+ */
+@Table(name = "UploadSessions")
+public class UploadSession extends Model {
+    @Column(name = "ModelClass")
+    private String mModelClass;
+    @Column(name = "ModelId")
+    private Long mModelId;
+    @Column(name = "SessionId")
+    private String mSessionId;
+    @Column(name = "FilePath")
+    private String mFilePath;
+    @Column(name = "FileSize")
+    private long mFileSize;
+    @Column(name = "Checksum")
+    private String mChecksum;
+    @Column(name = "UploadedBytes")
+    private long mOffset;
+    @Column(name = "UpdatedAt")
+    private long mUpdatedAt;
+
+    public UploadSession() {
+        super();
+    }
+
+    public UploadSession(SendModel element, String sessionId, String filePath, long fileSize,
+                         String checksum) {
+        super();
+        mModelClass = element.getClass().getName();
+        mModelId = element.getId();
+        mSessionId = sessionId;
+        mFilePath = filePath;
+        mFileSize = fileSize;
+        mChecksum = checksum;
+        mOffset = 0;
+        mUpdatedAt = System.currentTimeMillis();
+    }
+
+    public static UploadSession findByModel(SendModel element) {
+        return new Select().from(UploadSession.class)
+                .where("ModelClass = ? AND ModelId = ?", element.getClass().getName(),
+                        element.getId())
+                .executeSingle();
+    }
+
+    public boolean isFor(String filePath, long fileSize) {
+        return filePath.equals(mFilePath) && fileSize == mFileSize;
+    }
+
+    public boolean isComplete() {
+        return mOffset >= mFileSize;
+    }
+
+    public String getSessionId() {
+        return mSessionId;
+    }
+
+    public long getFileSize() {
+        return mFileSize;
+    }
+
+    public String getChecksum() {
+        return mChecksum;
+    }
+
+    public long getOffset() {
+        return mOffset;
+    }
+
+    public void setOffset(long offset) {
+        mOffset = Math.min(offset, mFileSize);
+        mUpdatedAt = System.currentTimeMillis();
+        save();
+    }
+
+    public long getUpdatedAt() {
+        return mUpdatedAt;
+    }
+}
@@ -7,6 +7,7 @@ import com.activeandroid.annotation.Table;
 import com.activeandroid.query.Select;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModel;
+import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModelCache;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -83,7 +84,8 @@ public class Validation extends ReceiveModel {
     }
 
     public static Validation findByRemoteId(Long id) {
-        return new Select().from(Validation.class).where("RemoteId = ?", id).executeSingle();
+        return ReceiveModelCache.find(Validation.class, id, new Select().from(Validation.class)
+                .where("RemoteId = ?", id));
     }
 
     public Long getRemoteId() {
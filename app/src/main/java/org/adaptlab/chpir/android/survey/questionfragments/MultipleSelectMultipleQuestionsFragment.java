@@ -46,12 +46,7 @@ public class MultipleSelectMultipleQuestionsFragment extends MultipleQuestionsFr
 
     @Override
     protected void saveResponse(Question question, int checkedId, boolean isChecked) {
-        Response response = getSurvey().getResponseByQuestion(question);
-        if (response == null) {
-            response = new Response();
-            response.setQuestion(question);
-            response.setSurvey(getSurvey());
-        }
+        Response response = loadOrCreateResponse(question);
         StringBuilder serialized = new StringBuilder();
         if (!response.getText().equals("")) {
             String[] listOfIndices = response.getText().split(Response.LIST_DELIMITER);
@@ -180,7 +175,8 @@ public class MultipleSelectMultipleQuestionsFragment extends MultipleQuestionsFr
         }
 
         private void deserialize(int position) {
-            Response response = getSurvey().getResponseByQuestion(questionList.get(position));
+            Response response = mSurveyFragment.getResponses().get(
+                    questionList.get(position).getQuestionIdentifier());
             if (response != null) {
                 String responseText = response.getText();
                 List<CheckBox> checkBoxes = mCheckBoxes.get(position);
@@ -16,6 +16,7 @@ import android.widget.LinearLayout;
 import org.adaptlab.chpir.android.survey.CameraFragment;
 import org.adaptlab.chpir.android.survey.SingleQuestionFragment;
 import org.adaptlab.chpir.android.survey.models.ResponsePhoto;
+import org.adaptlab.chpir.android.survey.models.ResponseWriter;
 
 import java.io.File;
 
@@ -50,6 +51,8 @@ public abstract class PictureQuestionFragment extends SingleQuestionFragment {
 
     protected void loadOrCreateResponsePhoto() {
         if (getResponse() != null) {
+            // The photo refers to the response, which may be waiting to be inserted
+            ResponseWriter.flush();
             if (getResponse().getResponsePhoto() == null) {
                 mPhoto = new ResponsePhoto();
                 mPhoto.setResponse(getResponse());
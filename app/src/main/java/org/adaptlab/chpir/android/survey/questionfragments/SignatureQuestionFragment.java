@@ -16,6 +16,7 @@ import com.github.gcacace.signaturepad.views.SignaturePad;
 import org.adaptlab.chpir.android.survey.R;
 import org.adaptlab.chpir.android.survey.SingleQuestionFragment;
 import org.adaptlab.chpir.android.survey.models.ResponsePhoto;
+import org.adaptlab.chpir.android.survey.models.ResponseWriter;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -94,6 +95,8 @@ public class SignatureQuestionFragment extends SingleQuestionFragment {
 
     private void loadOrCreateResponsePhoto() {
         if (getResponse() != null) {
+            // The response may be waiting to be inserted by the writer
+            ResponseWriter.flush();
             if (getResponse().getId() == null) getResponse().save();
             if (getResponse().getResponsePhoto() == null) {
                 mResponsePhoto = new ResponsePhoto();
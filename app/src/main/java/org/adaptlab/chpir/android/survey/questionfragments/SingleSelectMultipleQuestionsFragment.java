@@ -153,7 +153,8 @@ public class SingleSelectMultipleQuestionsFragment extends MultipleQuestionsFrag
         }
 
         private void deserialize(int position) {
-            Response response = getSurvey().getResponseByQuestion(mQuestionList.get(position));
+            Response response = mSurveyFragment.getResponses().get(
+                    mQuestionList.get(position).getQuestionIdentifier());
             if (response != null) {
                 String responseText = response.getText();
                 if (responseText.equals("")) {
@@ -17,6 +17,7 @@ import android.widget.Toast;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.ActiveRecordCloudSync;
 import org.adaptlab.chpir.android.activerecordcloudsync.NotificationUtils;
+import org.adaptlab.chpir.android.activerecordcloudsync.TransportCompression;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 import org.adaptlab.chpir.android.survey.R;
 import org.json.JSONException;
@@ -29,9 +30,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.UUID;
 
+import okhttp3.Request;
+import okhttp3.Response;
+
 public class ApkUpdateTask extends AsyncTask<Void, Void, Void> {
 
     private static final String TAG = "ApkUpdateTask";
@@ -123,16 +126,16 @@ public class ApkUpdateTask extends AsyncTask<Void, Void, Void> {
     }
 
     private byte[] getUrlBytes(String urlSpec) throws IOException {
-        URL url = new URL(urlSpec);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        Request.Builder builder = new Request.Builder().url(urlSpec);
+        TransportCompression.acceptCompressed(builder);
+        Response response = AppUtil.getOkHttpClient().newCall(builder.build()).execute();
 
         try {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
-            InputStream in = connection.getInputStream();
-
-            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            if (response.code() != HttpURLConnection.HTTP_OK) {
                 return null;
             }
+            InputStream in = TransportCompression.getInputStream(response);
 
             int bytesRead = 0;
             byte[] buffer = new byte[1024];
@@ -142,7 +145,7 @@ public class ApkUpdateTask extends AsyncTask<Void, Void, Void> {
             out.close();
             return out.toByteArray();
         } finally {
-            connection.disconnect();
+            response.close();
         }
     }
 
@@ -5,28 +5,28 @@ import android.app.NotificationManager;
 import android.content.Context;
 import android.os.AsyncTask;
 import android.support.v4.app.NotificationCompat;
-import android.util.Log;
+
+import com.activeandroid.ActiveAndroid;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.ActiveRecordCloudSync;
+import org.adaptlab.chpir.android.activerecordcloudsync.DraftUpload;
 import org.adaptlab.chpir.android.activerecordcloudsync.NotificationUtils;
-import org.adaptlab.chpir.android.activerecordcloudsync.SendModel;
-import org.adaptlab.chpir.android.survey.BuildConfig;
+import org.adaptlab.chpir.android.activerecordcloudsync.OutboxScheduler;
+import org.adaptlab.chpir.android.activerecordcloudsync.UploadPolicy;
+import org.adaptlab.chpir.android.activerecordcloudsync.UploadScheduler;
 import org.adaptlab.chpir.android.survey.R;
 import org.adaptlab.chpir.android.survey.models.DeviceSyncEntry;
+import org.adaptlab.chpir.android.survey.models.OutboxEntry;
+import org.adaptlab.chpir.android.survey.models.Project;
 import org.adaptlab.chpir.android.survey.models.Response;
+import org.adaptlab.chpir.android.survey.models.ResponsePhoto;
+import org.adaptlab.chpir.android.survey.models.ResponseWriter;
 import org.adaptlab.chpir.android.survey.models.Survey;
 import org.adaptlab.chpir.android.survey.utils.AppUtil;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.MediaType;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-
 public class SubmitSurveyTask extends AsyncTask<Void, Integer, Void> {
     private static final String TAG = "SurveyViewPagerFragment";
     private Context mContext;
@@ -35,64 +35,60 @@ public class SubmitSurveyTask extends AsyncTask<Void, Integer, Void> {
     public SubmitSurveyTask(Context context) {
         mContext = context;
         mSurveys = new ArrayList<>();
+    }
+
+    @Override
+    protected Void doInBackground(Void... params) {
+        // Responses still queued by the writer are saved before any transaction reads them
+        ResponseWriter.flush();
         for (Survey survey : Survey.getAllProjectSurveys(AppUtil.getProjectId())) {
             if (survey.isQueued() && survey.responses().size() > 0) {
                 mSurveys.add(survey);
             }
         }
-    }
-
-    @Override
-    protected Void doInBackground(Void... params) {
-        if (NotificationUtils.checkForNetworkErrors(mContext)) {
-            for (Survey survey : mSurveys) {
-                if (survey.isPersistent()) {
-                    if (!survey.isSent()) {
-                        survey.setSubmittedIdentifier(survey.identifier(mContext));
-                    }
-                    List<Response> responses = survey.responses();
-                    sendData(survey, "surveys");
-                    for (Response response : responses) {
-                        sendData(response, "responses");
-                        if (response.getResponsePhoto() != null) {
-                            sendData(response.getResponsePhoto(), "response_images");
-                        }
-                    }
+        showNotification();
+        for (Survey survey : mSurveys) {
+            if (survey.isPersistent()) {
+                if (!survey.isSent()) {
+                    survey.setSubmittedIdentifier(survey.identifier(mContext));
                 }
+                enqueue(survey);
             }
+        }
+        if (NotificationUtils.checkForNetworkErrors(mContext)) {
+            Project project = Project.findByRemoteId(AppUtil.getProjectId());
+            ActiveRecordCloudSync.setUploadPolicy(UploadPolicy.fromJSON(
+                    project == null ? null : project.getUploadPolicy()));
+            new UploadScheduler(mContext).run();
             new DeviceSyncEntry().pushRemote();
+        } else {
+            OutboxScheduler.deferDue(mContext.getApplicationContext(), "Remote unavailable");
         }
         return null;
     }
 
-    private void sendData(final SendModel element, String tableName) {
-        String url = ActiveRecordCloudSync.getEndPoint() + tableName + ActiveRecordCloudSync.getParams();
-        MediaType JSON = MediaType.parse("application/json; charset=utf-8");
-        RequestBody body = RequestBody.create(JSON, element.toJSON().toString());
-        final Request request = new okhttp3.Request.Builder().url(url).post(body).build();
-
-        AppUtil.getOkHttpClient().newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                if (BuildConfig.DEBUG) Log.e(TAG, "onFailure: ", e);
+    /*
+     * Add survey, its responses and their photos to the outbox. Entries that are already
+     * waiting keep their attempts and idempotency keys. Responses the remote already holds
+     * as drafts are completed by the survey itself.
+     */
+    private void enqueue(Survey survey) {
+        ActiveAndroid.beginTransaction();
+        try {
+            OutboxEntry.enqueue(survey, "surveys");
+            for (Response response : survey.responses()) {
+                DraftUpload.cancel(response);
+                if (!response.isDraftSent()) OutboxEntry.enqueue(response, "responses");
+                ResponsePhoto photo = response.getResponsePhoto();
+                if (photo != null) OutboxEntry.enqueue(photo, "response_images");
             }
-
-            @Override
-            public void onResponse(Call call, final okhttp3.Response response) {
-                if (response.isSuccessful()) {
-                    if (BuildConfig.DEBUG) Log.i(TAG, "Successfully submitted: " + element);
-                    element.setAsSent(mContext);
-                    response.close();
-                } else {
-                    if (BuildConfig.DEBUG) Log.i(TAG, "Not Successful");
-                    response.close();
-                }
-            }
-        });
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
     }
 
-    @Override
-    protected void onPreExecute() {
+    private void showNotification() {
         if (mSurveys.size() == 0) return;
         NotificationUtils.showNotification(mContext, R.drawable.ic_cloud_upload_black_24dp,
                 R.string.uploading_surveys, mSurveys.size() + " " +
@@ -18,7 +18,9 @@ import com.crashlytics.android.Crashlytics;
 import com.newrelic.agent.android.NewRelic;
 
 import org.adaptlab.chpir.android.activerecordcloudsync.ActiveRecordCloudSync;
+import org.adaptlab.chpir.android.activerecordcloudsync.OutboxScheduler;
 import org.adaptlab.chpir.android.activerecordcloudsync.PollService;
+import org.adaptlab.chpir.android.activerecordcloudsync.ReceiveModelCache;
 import org.adaptlab.chpir.android.survey.BuildConfig;
 import org.adaptlab.chpir.android.survey.R;
 import org.adaptlab.chpir.android.survey.SurveyApp;
@@ -68,12 +70,16 @@ import org.adaptlab.chpir.android.survey.models.Survey;
 import org.adaptlab.chpir.android.survey.models.Validation;
 import org.adaptlab.chpir.android.survey.vendor.BCrypt;
 
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import io.fabric.sdk.android.Fabric;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 
 public class AppUtil {
     private final static String TAG = "AppUtil";
@@ -86,6 +92,9 @@ public class AppUtil {
     private static Context mContext;
     private static AdminSettings adminSettingsInstance;
     private static OkHttpClient okHttpClient;
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final int KEEP_ALIVE_MINUTES = 5;
+    private static final int MAX_REQUESTS_PER_HOST = 8;
 
     /*
      * Get the version code from the AndroidManifest
@@ -147,6 +156,7 @@ public class AppUtil {
         }
 
         DatabaseSeed.seed(context);
+        if (BuildConfig.DEBUG) QueryPlan.checkHotQueries();
 
         if (TextUtils.isEmpty(adminSettingsInstance.getDeviceIdentifier())) {
             adminSettingsInstance.setDeviceIdentifier(UUID.randomUUID().toString());
@@ -159,30 +169,38 @@ public class AppUtil {
         ActiveRecordCloudSync.setAccessToken(ACCESS_TOKEN);
         ActiveRecordCloudSync.setVersionCode(AppUtil.getVersionCode(context));
         ActiveRecordCloudSync.setEndPoint(adminSettingsInstance.getApiUrl());
+        ActiveRecordCloudSync.setCompressTransport(adminSettingsInstance.getCompressTransport());
+        ActiveRecordCloudSync.setBatchUpload(adminSettingsInstance.getBatchUpload());
+        ActiveRecordCloudSync.setIncrementalUpload(adminSettingsInstance.getIncrementalUpload());
         ActiveRecordCloudSync.addReceiveTable("projects", Project.class);
         ActiveRecordCloudSync.addReceiveTable("instruments", Instrument.class);
         ActiveRecordCloudSync.addReceiveTable("sections", Section.class);
         ActiveRecordCloudSync.addReceiveTable("validations", Validation.class);
         ActiveRecordCloudSync.addReceiveTable("instructions", Instruction.class);
-        ActiveRecordCloudSync.addReceiveTable("questions", Question.class);
+        ActiveRecordCloudSync.addReceiveTable("questions", Question.class, "instruments");
         ActiveRecordCloudSync.addReceiveTable("options", Option.class);
         ActiveRecordCloudSync.addReceiveTable("randomized_factors", RandomizedFactor.class);
-        ActiveRecordCloudSync.addReceiveTable("randomized_options", RandomizedOption.class);
-        ActiveRecordCloudSync.addReceiveTable("question_randomized_factors", QuestionRandomizedFactor.class);
-        ActiveRecordCloudSync.addReceiveTable("images", Image.class);
+        ActiveRecordCloudSync.addReceiveTable("randomized_options", RandomizedOption.class,
+                "randomized_factors", "instruments");
+        ActiveRecordCloudSync.addReceiveTable("question_randomized_factors", QuestionRandomizedFactor.class,
+                "questions", "randomized_factors");
+        ActiveRecordCloudSync.addReceiveTable("images", Image.class, "questions");
         ActiveRecordCloudSync.addReceiveTable("device_users", DeviceUser.class);
         ActiveRecordCloudSync.addReceiveTable("rules", Rule.class);
         ActiveRecordCloudSync.addReceiveTable("score_schemes", ScoreScheme.class);
-        ActiveRecordCloudSync.addReceiveTable("score_units", ScoreUnit.class);
-        ActiveRecordCloudSync.addReceiveTable("option_scores", OptionScore.class);
-        ActiveRecordCloudSync.addReceiveTable("score_unit_questions", ScoreUnitQuestion.class);
+        ActiveRecordCloudSync.addReceiveTable("score_units", ScoreUnit.class, "score_schemes");
+        ActiveRecordCloudSync.addReceiveTable("option_scores", OptionScore.class, "options",
+                "score_units");
+        ActiveRecordCloudSync.addReceiveTable("score_unit_questions", ScoreUnitQuestion.class,
+                "questions", "score_units");
         ActiveRecordCloudSync.addReceiveTable("displays", Display.class);
         ActiveRecordCloudSync.addReceiveTable("display_instructions", DisplayInstruction.class);
         ActiveRecordCloudSync.addReceiveTable("next_questions", NextQuestion.class);
         ActiveRecordCloudSync.addReceiveTable("multiple_skips", MultipleSkip.class);
         ActiveRecordCloudSync.addReceiveTable("follow_up_questions", FollowUpQuestion.class);
         ActiveRecordCloudSync.addReceiveTable("condition_skips", ConditionSkip.class);
-        ActiveRecordCloudSync.addReceiveTable("option_in_option_sets", OptionInOptionSet.class);
+        ActiveRecordCloudSync.addReceiveTable("option_in_option_sets", OptionInOptionSet.class,
+                "option_sets", "options");
         ActiveRecordCloudSync.addReceiveTable("option_sets", OptionSet.class);
         ActiveRecordCloudSync.addSendTable("surveys", Survey.class);
         ActiveRecordCloudSync.addSendTable("responses", Response.class);
@@ -193,6 +211,7 @@ public class AppUtil {
         ActiveRecordCloudSync.addSendTable("raw_scores", RawScore.class);
 
         PollService.setServiceAlarm(context.getApplicationContext(), true);
+        OutboxScheduler.register(context.getApplicationContext());
     }
 
     private static void checkDatabaseVersionChange() {
@@ -280,9 +299,21 @@ public class AppUtil {
         return adminSettingsInstance;
     }
 
-    public static OkHttpClient getOkHttpClient() {
+    /*
+     * The one client used for every request, so that syncs and uploads reuse pooled
+     * keep-alive connections (multiplexed over HTTP/2 where the server supports it)
+     * instead of doing a TLS handshake per request. Use newBuilder() on it for different
+     * timeouts; derived clients share its pool and dispatcher.
+     */
+    public static synchronized OkHttpClient getOkHttpClient() {
         if (okHttpClient == null) {
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
             okHttpClient = new OkHttpClient().newBuilder()
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS,
+                            KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                    .dispatcher(dispatcher)
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
                     .connectTimeout(15, TimeUnit.SECONDS)
                     .writeTimeout(15, TimeUnit.SECONDS)
                     .readTimeout(30, TimeUnit.SECONDS)
@@ -327,6 +358,7 @@ public class AppUtil {
             ActiveAndroid.setTransactionSuccessful();
         } finally {
             ActiveAndroid.endTransaction();
+            ReceiveModelCache.clear();
         }
     }
 
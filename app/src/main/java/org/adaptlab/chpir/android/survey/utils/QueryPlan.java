@@ -0,0 +1,85 @@
+package org.adaptlab.chpir.android.survey.utils;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import com.activeandroid.Cache;
+import com.activeandroid.query.From;
+import com.activeandroid.query.Select;
+
+import org.adaptlab.chpir.android.survey.models.Display;
+import org.adaptlab.chpir.android.survey.models.Instrument;
+import org.adaptlab.chpir.android.survey.models.MultipleSkip;
+import org.adaptlab.chpir.android.survey.models.NextQuestion;
+import org.adaptlab.chpir.android.survey.models.OptionScore;
+import org.adaptlab.chpir.android.survey.models.Response;
+import org.adaptlab.chpir.android.survey.models.Survey;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * EXPLAIN QUERY PLAN for ActiveAndroid queries, to check that the finders on hot paths are
+ * answered from an index rather than by scanning or sorting a whole table.
+ */
+public class QueryPlan {
+    private static final String TAG = "QueryPlan";
+
+    /*
+     * The detail column of each row of the plan of query.
+     */
+    public static List<String> explain(From query) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = Cache.openDatabase().rawQuery("EXPLAIN QUERY PLAN " + query.toSql(),
+                query.getArguments());
+        try {
+            int detail = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    /*
+     * True if some step of the plan of query reads a table without an index or sorts its
+     * result in a temporary b-tree.
+     */
+    public static boolean scans(From query) {
+        for (String step : explain(query)) {
+            if ((step.startsWith("SCAN") && !step.contains("USING")) ||
+                    step.startsWith("USE TEMP B-TREE")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Log a warning for each hot finder whose plan scans a table. Used on debug builds.
+     */
+    public static void checkHotQueries() {
+        List<From> queries = new ArrayList<>();
+        queries.add(new Select().from(Response.class).where("SurveyUUID = ?", "")
+                .orderBy("TimeEnded"));
+        queries.add(new Select().from(Response.class).where("Question = ? AND SurveyUUID = ?",
+                0, ""));
+        queries.add(new Select("Surveys.*").from(Survey.class).innerJoin(Instrument.class)
+                .on("Surveys.InstrumentRemoteId=Instruments.RemoteId AND Instruments.Published=1")
+                .where("Surveys.ProjectId = ? AND RosterUUID IS null", 0)
+                .orderBy("Surveys.LastUpdated DESC"));
+        queries.add(new Select().from(OptionScore.class).where("ScoreUnit = ?", 0));
+        queries.add(new Select().from(NextQuestion.class).where(
+                "RemoteInstrumentId = ? AND Deleted != ?", 0, 1));
+        queries.add(new Select().from(MultipleSkip.class).where(
+                "RemoteInstrumentId = ? AND Deleted != ?", 0, 1));
+        queries.add(new Select().from(Display.class).where("RemoteId = ?", 0));
+        for (From query : queries) {
+            if (scans(query)) {
+                Log.w(TAG, "Query scans a table: " + query.toSql() + " " + explain(query));
+            }
+        }
+    }
+}
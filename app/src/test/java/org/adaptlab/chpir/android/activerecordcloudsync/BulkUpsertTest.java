@@ -0,0 +1,117 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import com.activeandroid.ActiveAndroid;
+import com.activeandroid.query.Delete;
+import com.activeandroid.query.Select;
+
+import org.adaptlab.chpir.android.survey.models.Fixtures;
+import org.adaptlab.chpir.android.survey.models.Question;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class BulkUpsertTest {
+    private static final int ROWS = 10000;
+    private static final int BATCH_SIZE = 500;
+
+    @Test
+    public void updatesRowsInPlaceKeepingColumnsTheJsonLeavesOut() throws Exception {
+        JSONArray rows = new JSONArray();
+        for (int i = 1; i <= 3; i++) {
+            rows.put(Fixtures.questionJSON(i));
+        }
+        readStream(rows);
+        long id = findByRemoteId(2).getId();
+
+        JSONObject update = Fixtures.questionJSON(2);
+        update.put("text", "Updated");
+        update.remove("number_in_instrument");
+        readStream(new JSONArray().put(update));
+
+        assertEquals(3, new Select().from(Question.class).count());
+        Question question = findByRemoteId(2);
+        assertEquals(id, (long) question.getId());
+        assertEquals("Updated", question.getText());
+        assertEquals(2, question.getNumberInInstrument());
+    }
+
+    /*
+     * Rows per second of a sync page written through BulkUpsert against the same rows looked
+     * up with findByRemoteId and written with save() one by one, as before BulkUpsert.
+     */
+    @Test
+    public void upsertsFasterThanSavingEachRow() throws Exception {
+        JSONArray rows = new JSONArray();
+        for (int i = 1; i <= ROWS; i++) {
+            rows.put(Fixtures.questionJSON(i));
+        }
+        long saveInsert = saveEachRow(rows);
+        long saveUpdate = saveEachRow(rows);
+        new Delete().from(Question.class).execute();
+        long bulkInsert = readStream(rows);
+        long bulkUpdate = readStream(rows);
+
+        assertEquals(ROWS, new Select().from(Question.class).count());
+        System.out.println("BulkUpsert, " + ROWS + " rows: insert " + rate(saveInsert) +
+                " -> " + rate(bulkInsert) + " rows/s, update " + rate(saveUpdate) + " -> " +
+                rate(bulkUpdate) + " rows/s");
+        assertTrue(bulkInsert < saveInsert);
+        assertTrue(bulkUpdate < saveUpdate);
+    }
+
+    private static long readStream(JSONArray rows) throws Exception {
+        long start = System.nanoTime();
+        new HttpFetchr("questions", Question.class).readStream(
+                new ByteArrayInputStream(rows.toString().getBytes(Charset.forName("UTF-8"))));
+        return System.nanoTime() - start;
+    }
+
+    private static long saveEachRow(JSONArray rows) throws Exception {
+        long start = System.nanoTime();
+        JSONArray parsed = new JSONArray(rows.toString());
+        ActiveAndroid.beginTransaction();
+        try {
+            for (int i = 0; i < parsed.length(); i++) {
+                JSONObject json = parsed.getJSONObject(i);
+                Question question = findByRemoteId(json.getLong("id"));
+                if (question == null) question = new Question();
+                question.setRemoteId(json.getLong("id"));
+                question.setText(json.getString("text"));
+                question.setQuestionType(json.getString("question_type"));
+                question.setQuestionIdentifier(json.getString("question_identifier"));
+                question.setInstrumentRemoteId(json.getLong("instrument_id"));
+                question.save();
+                if ((i + 1) % BATCH_SIZE == 0) {
+                    ActiveAndroid.setTransactionSuccessful();
+                    ActiveAndroid.endTransaction();
+                    ActiveAndroid.beginTransaction();
+                }
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /*
+     * Without ReceiveModelCache, which would spare the baseline its lookups on the update.
+     */
+    private static Question findByRemoteId(long remoteId) {
+        return new Select().from(Question.class).where("RemoteId = ?", remoteId)
+                .executeSingle();
+    }
+
+    private static long rate(long nanos) {
+        return ROWS * 1000000000L / Math.max(1, nanos);
+    }
+}
@@ -0,0 +1,156 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import com.activeandroid.query.Select;
+import com.activeandroid.query.Update;
+
+import org.adaptlab.chpir.android.survey.models.Fixtures;
+import org.adaptlab.chpir.android.survey.models.OutboxEntry;
+import org.adaptlab.chpir.android.survey.models.Response;
+import org.adaptlab.chpir.android.survey.models.ResponsePhoto;
+import org.adaptlab.chpir.android.survey.models.Survey;
+import org.adaptlab.chpir.android.survey.models.UploadSession;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Uploads a photo of several chunks to a remote that fails at random: it answers some steps
+ * with a 500 without storing anything, and drops the connection after storing others, the
+ * first stored chunk always, so the client only learns the offset from a 409.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ChunkedUploadTest {
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_RUNS = 200;
+
+    private final Map<String, ByteArrayOutputStream> mUploads = new HashMap<>();
+    private final List<String> mAttachments = new ArrayList<>();
+    private final Random mRandom = new Random(17);
+    private MockWebServer mServer;
+    private boolean mDropped;
+    private int mConflicts;
+    private int mBadChecksums;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return respond(request);
+            }
+        });
+        mServer.start();
+        ActiveRecordCloudSync.setEndPoint(mServer.url("/api/").toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void resumesFromTheRemoteOffsetUntilTheFileIsComplete() throws Exception {
+        byte[] picture = new byte[CHUNK_SIZE * 4 + 1000];
+        new Random(1).nextBytes(picture);
+        FileOutputStream out = RuntimeEnvironment.application.openFileOutput("picture.jpg", 0);
+        try {
+            out.write(picture);
+        } finally {
+            out.close();
+        }
+        Survey survey = Fixtures.createSurvey(Fixtures.createInstrument(1L), 1);
+        Response response = survey.responses().get(0);
+        ResponsePhoto photo = new ResponsePhoto();
+        photo.setResponse(response);
+        photo.setPicturePath("picture.jpg");
+        photo.save();
+        OutboxEntry.enqueue(photo, "response_images");
+
+        int runs = 0;
+        while (OutboxEntry.getCount() > 0 && runs++ < MAX_RUNS) {
+            // Skip the backoff of the last failed attempt
+            new Update(OutboxEntry.class).set("NextAttemptAt = ?", 0).execute();
+            new UploadScheduler(RuntimeEnvironment.application).run();
+        }
+
+        assertEquals(0, OutboxEntry.getCount());
+        synchronized (this) {
+            assertTrue(mConflicts > 0);
+            assertEquals(0, mBadChecksums);
+            assertEquals(1, mUploads.size());
+            String uploadId = mUploads.keySet().iterator().next();
+            assertArrayEquals(picture, mUploads.get(uploadId).toByteArray());
+            assertEquals(1, mAttachments.size());
+            JSONObject attachment = new JSONObject(mAttachments.get(0))
+                    .getJSONObject("response_image");
+            assertEquals(uploadId, attachment.getString("upload_id"));
+            assertEquals(response.getUUID(), attachment.getString("response_uuid"));
+        }
+        assertEquals(0, new Select().from(UploadSession.class).count());
+    }
+
+    private synchronized MockResponse respond(RecordedRequest request) {
+        String path = request.getPath();
+        boolean fail = mRandom.nextInt(100) < 20;
+        if (path.startsWith("/api/uploads?") && "POST".equals(request.getMethod())) {
+            if (fail) return new MockResponse().setResponseCode(500);
+            String id = "upload-" + (mUploads.size() + 1);
+            mUploads.put(id, new ByteArrayOutputStream());
+            return new MockResponse().setResponseCode(201).setBody("{\"id\": \"" + id + "\"}");
+        } else if (path.startsWith("/api/uploads/") && "PATCH".equals(request.getMethod())) {
+            String id = path.substring("/api/uploads/".length(), path.indexOf('?'));
+            ByteArrayOutputStream upload = mUploads.get(id);
+            if (upload == null) return new MockResponse().setResponseCode(404);
+            long offset = Long.parseLong(request.getHeader(ChunkedUpload.UPLOAD_OFFSET));
+            if (offset != upload.size()) {
+                mConflicts++;
+                return new MockResponse().setResponseCode(409)
+                        .setHeader(ChunkedUpload.UPLOAD_OFFSET, upload.size());
+            }
+            if (fail) return new MockResponse().setResponseCode(500);
+            byte[] chunk = request.getBody().readByteArray();
+            if (!("sha256 " + DigestUtils.sha256Hex(chunk)).equals(
+                    request.getHeader("Upload-Checksum"))) {
+                mBadChecksums++;
+                return new MockResponse().setResponseCode(400);
+            }
+            upload.write(chunk, 0, chunk.length);
+            if (!mDropped || mRandom.nextInt(100) < 20) {
+                mDropped = true;
+                return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+            }
+            return new MockResponse().setResponseCode(204)
+                    .setHeader(ChunkedUpload.UPLOAD_OFFSET, upload.size());
+        } else if (path.startsWith("/api/response_images?")) {
+            if (fail) return new MockResponse().setResponseCode(500);
+            mAttachments.add(request.getBody().readUtf8());
+            return new MockResponse().setResponseCode(201);
+        }
+        return new MockResponse().setResponseCode(404);
+    }
+}
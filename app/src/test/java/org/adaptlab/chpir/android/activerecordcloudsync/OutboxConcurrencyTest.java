@@ -0,0 +1,123 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import org.adaptlab.chpir.android.survey.models.Fixtures;
+import org.adaptlab.chpir.android.survey.models.Instrument;
+import org.adaptlab.chpir.android.survey.models.OutboxEntry;
+import org.adaptlab.chpir.android.survey.models.Survey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Drains the outbox, which reconciles acknowledged records on its writer thread, while
+ * another thread saves and enqueues surveys the way SubmitSurveyTask does.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class OutboxConcurrencyTest {
+    private static final int SURVEYS = 20;
+    private static final int RESPONSES = 5;
+
+    private final Map<String, Integer> mPosts = new HashMap<>();
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String key = request.getHeader(HttpUtil.IDEMPOTENCY_KEY);
+                synchronized (mPosts) {
+                    Integer count = mPosts.get(key);
+                    mPosts.put(key, count == null ? 1 : count + 1);
+                }
+                return new MockResponse().setResponseCode(201);
+            }
+        });
+        mServer.start();
+        ActiveRecordCloudSync.setEndPoint(mServer.url("/api/").toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void sendsEveryEntryOnceWhileSurveysAreEnqueued() throws InterruptedException {
+        final Instrument instrument = Fixtures.createInstrument(1L);
+        final Set<String> keys = Collections.synchronizedSet(new HashSet<String>());
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final AtomicBoolean enqueuing = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < SURVEYS; i++) {
+                        for (OutboxEntry entry : Fixtures.enqueue(Fixtures.createSurvey(
+                                instrument, RESPONSES))) {
+                            keys.add(entry.getIdempotencyKey());
+                        }
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                } finally {
+                    enqueuing.set(false);
+                }
+            }
+        });
+        Thread drain = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (enqueuing.get()) {
+                        new UploadScheduler(RuntimeEnvironment.application).run();
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            }
+        });
+        writer.start();
+        drain.start();
+        writer.join();
+        drain.join();
+        // Entries enqueued after the last drain started
+        new UploadScheduler(RuntimeEnvironment.application).run();
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(SURVEYS * (1 + RESPONSES), keys.size());
+        synchronized (mPosts) {
+            assertEquals(keys, mPosts.keySet());
+            for (Map.Entry<String, Integer> post : mPosts.entrySet()) {
+                assertEquals(post.getKey(), 1, (int) post.getValue());
+            }
+        }
+        assertEquals(0, OutboxEntry.getCount());
+        assertEquals(SURVEYS, Survey.getAll().size());
+        for (Survey survey : Survey.getAll()) {
+            assertTrue(survey.isSent());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import org.adaptlab.chpir.android.survey.models.Fixtures;
+import org.adaptlab.chpir.android.survey.models.Instrument;
+import org.adaptlab.chpir.android.survey.models.OutboxEntry;
+import org.adaptlab.chpir.android.survey.models.Survey;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SendBatchTest {
+    private static final int SURVEYS = 5;
+    private static final int RESPONSES = 20;
+
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(201);
+            }
+        });
+        mServer.start();
+        ActiveRecordCloudSync.setEndPoint(mServer.url("/api/").toString());
+        ActiveRecordCloudSync.setBatchUpload(true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        ActiveRecordCloudSync.setBatchUpload(false);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void postsEachSurveyWithItsResponsesInOneRequest() throws InterruptedException {
+        Instrument instrument = Fixtures.createInstrument(1L);
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < SURVEYS; i++) {
+            for (OutboxEntry entry : Fixtures.enqueue(Fixtures.createSurvey(instrument,
+                    RESPONSES))) {
+                keys.add(entry.getIdempotencyKey());
+            }
+        }
+
+        new UploadScheduler(RuntimeEnvironment.application).run();
+
+        // One request per survey instead of one per record
+        assertEquals(SURVEYS, mServer.getRequestCount());
+        for (int i = 0; i < SURVEYS; i++) {
+            RecordedRequest request = mServer.takeRequest();
+            assertEquals("POST", request.getMethod());
+            assertTrue(request.getPath().startsWith("/api/" + SendBatch.REMOTE_TABLE + "?"));
+            String[] lines = request.getBody().readUtf8().split("\n");
+            assertEquals(1 + RESPONSES, lines.length);
+            for (String line : lines) {
+                assertTrue(line, keys.remove(idempotencyKeyOf(line)));
+            }
+        }
+        assertTrue(keys.isEmpty());
+        assertEquals(0, OutboxEntry.getCount());
+        for (Survey survey : Survey.getAll()) {
+            assertTrue(survey.isSent());
+        }
+    }
+
+    private static String idempotencyKeyOf(String line) {
+        try {
+            return new JSONObject(line).getString("idempotency_key");
+        } catch (JSONException e) {
+            throw new AssertionError(line);
+        }
+    }
+}
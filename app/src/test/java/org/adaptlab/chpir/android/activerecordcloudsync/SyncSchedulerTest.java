@@ -0,0 +1,139 @@
+package org.adaptlab.chpir.android.activerecordcloudsync;
+
+import com.activeandroid.query.Select;
+
+import org.adaptlab.chpir.android.survey.models.Fixtures;
+import org.adaptlab.chpir.android.survey.models.Question;
+import org.adaptlab.chpir.android.survey.models.SyncCheckpoint;
+import org.adaptlab.chpir.android.survey.models.SyncWatermark;
+import org.adaptlab.chpir.android.survey.utils.AppUtil;
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Syncs the questions table from a remote that pages it by X-Next-Cursor.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SyncSchedulerTest {
+    private static final String TABLE = "questions";
+    private static final String SYNC_TIME = "1000";
+    private static final int PAGES = 3;
+    private static final int ROWS_PER_PAGE = 50;
+
+    // Pages answered with a 500 the next time they are requested
+    private final Set<Integer> mFailingPages = Collections.synchronizedSet(new HashSet<Integer>());
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return respond(request);
+            }
+        });
+        mServer.start();
+        ActiveRecordCloudSync.setEndPoint(mServer.url("/api/").toString());
+        ActiveRecordCloudSync.setLastSyncTime(SYNC_TIME);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void downloadsEachPageOnce() throws InterruptedException {
+        sync();
+
+        assertEquals(PAGES, mServer.getRequestCount());
+        String first = mServer.takeRequest().getPath();
+        assertTrue(first, first.contains("&page_size="));
+        assertFalse(first, first.contains("&cursor="));
+        for (int page = 1; page < PAGES; page++) {
+            String path = mServer.takeRequest().getPath();
+            assertTrue(path, path.contains("&cursor=page-" + page));
+        }
+        assertEquals(PAGES * ROWS_PER_PAGE, new Select().from(Question.class).count());
+        assertEquals(SYNC_TIME, SyncWatermark.getLastSyncTime(AppUtil.getProjectId(), TABLE));
+        assertNull(SyncCheckpoint.findByTableName(AppUtil.getProjectId(), TABLE));
+    }
+
+    @Test
+    public void resumesFromTheLastCommittedPage() throws InterruptedException {
+        mFailingPages.add(2);
+        sync();
+
+        assertEquals(2 * ROWS_PER_PAGE, new Select().from(Question.class).count());
+        assertEquals("", SyncWatermark.getLastSyncTime(AppUtil.getProjectId(), TABLE));
+        assertEquals("page-2",
+                SyncCheckpoint.findByTableName(AppUtil.getProjectId(), TABLE).getCursor());
+
+        sync();
+
+        // Only the failed page is requested again
+        assertEquals(PAGES + 1, mServer.getRequestCount());
+        for (int i = 0; i < PAGES; i++) {
+            mServer.takeRequest();
+        }
+        String resumed = mServer.takeRequest().getPath();
+        assertTrue(resumed, resumed.contains("&cursor=page-2"));
+        assertEquals(PAGES * ROWS_PER_PAGE, new Select().from(Question.class).count());
+        assertEquals(SYNC_TIME, SyncWatermark.getLastSyncTime(AppUtil.getProjectId(), TABLE));
+        assertNull(SyncCheckpoint.findByTableName(AppUtil.getProjectId(), TABLE));
+    }
+
+    private void sync() {
+        Map<String, Class<? extends ReceiveModel>> tables = new LinkedHashMap<>();
+        tables.put(TABLE, Question.class);
+        Map<String, List<String>> dependencies = new HashMap<>();
+        dependencies.put(TABLE, Collections.<String>emptyList());
+        new SyncScheduler(tables, dependencies, RuntimeEnvironment.application.getCacheDir())
+                .run();
+    }
+
+    private MockResponse respond(RecordedRequest request) {
+        String path = request.getPath();
+        if (!path.startsWith("/api/" + TABLE + "?")) return new MockResponse().setResponseCode(404);
+        int page = 0;
+        int cursor = path.indexOf("&cursor=page-");
+        if (cursor >= 0) {
+            page = Integer.parseInt(path.substring(cursor + "&cursor=page-".length())
+                    .split("&")[0]);
+        }
+        if (mFailingPages.remove(page)) return new MockResponse().setResponseCode(500);
+        JSONArray rows = new JSONArray();
+        for (int i = 0; i < ROWS_PER_PAGE; i++) {
+            rows.put(Fixtures.questionJSON(page * ROWS_PER_PAGE + i + 1));
+        }
+        MockResponse response = new MockResponse().setResponseCode(200)
+                .setBody(rows.toString());
+        if (page + 1 < PAGES) response.setHeader("X-Next-Cursor", "page-" + (page + 1));
+        return response;
+    }
+}
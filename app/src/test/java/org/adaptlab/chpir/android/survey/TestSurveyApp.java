@@ -0,0 +1,18 @@
+package org.adaptlab.chpir.android.survey;
+
+import org.adaptlab.chpir.android.activerecordcloudsync.DatabaseConfig;
+import org.adaptlab.chpir.android.survey.utils.AppUtil;
+
+/*
+ * SurveyApp without New Relic and the locale switch, so Robolectric tests get the
+ * ActiveAndroid database of the manifest and nothing else.
+ */
+public class TestSurveyApp extends com.activeandroid.app.Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        DatabaseConfig.configure();
+        AppUtil.setContext(this);
+    }
+}
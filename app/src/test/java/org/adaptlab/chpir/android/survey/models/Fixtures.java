@@ -0,0 +1,93 @@
+package org.adaptlab.chpir.android.survey.models;
+
+import com.activeandroid.ActiveAndroid;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Records for tests: saved surveys, enqueued the way SubmitSurveyTask enqueues a finished
+ * survey, and receive table rows as the remote sends them.
+ */
+public class Fixtures {
+
+    public static Instrument createInstrument(long remoteId) {
+        Instrument instrument = new Instrument();
+        instrument.setRemoteId(remoteId);
+        instrument.setTitle("Instrument " + remoteId);
+        instrument.setVersionNumber(1);
+        instrument.save();
+        return instrument;
+    }
+
+    /*
+     * A complete survey of instrument with responseCount responses.
+     */
+    public static Survey createSurvey(Instrument instrument, int responseCount) {
+        ActiveAndroid.beginTransaction();
+        try {
+            Survey survey = new Survey();
+            survey.setInstrumentRemoteId(instrument.getRemoteId());
+            survey.setAsComplete(true);
+            survey.setQueued(true);
+            survey.save();
+            for (int i = 0; i < responseCount; i++) {
+                createResponse(survey, "Response " + i);
+            }
+            ActiveAndroid.setTransactionSuccessful();
+            return survey;
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+    }
+
+    public static Response createResponse(Survey survey, String text) {
+        Response response = new Response();
+        response.setSurvey(survey);
+        response.setResponse(text);
+        response.save();
+        return response;
+    }
+
+    /*
+     * A question of the questions receive table as the remote sends it.
+     */
+    public static JSONObject questionJSON(long remoteId) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("id", remoteId);
+            json.put("text", "Question " + remoteId);
+            json.put("question_type", "SELECT_ONE");
+            json.put("question_identifier", "q" + remoteId);
+            json.put("instrument_id", 1);
+            json.put("instrument_version", 1);
+            json.put("number_in_instrument", remoteId);
+            json.put("question_version", 1);
+            json.put("table_identifier", "");
+            return json;
+        } catch (JSONException je) {
+            throw new IllegalStateException(je);
+        }
+    }
+
+    /*
+     * Add survey and its responses to the outbox and return their entries, survey first.
+     */
+    public static List<OutboxEntry> enqueue(Survey survey) {
+        List<OutboxEntry> entries = new ArrayList<>();
+        ActiveAndroid.beginTransaction();
+        try {
+            entries.add(OutboxEntry.enqueue(survey, "surveys"));
+            for (Response response : survey.responses()) {
+                entries.add(OutboxEntry.enqueue(response, "responses"));
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,79 @@
+package org.adaptlab.chpir.android.survey.models;
+
+import com.activeandroid.ActiveAndroid;
+
+import org.adaptlab.chpir.android.activerecordcloudsync.SendModel;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class SurveySerializerTest {
+    private static final int RESPONSES = 500;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /*
+     * Writes the same JSON as toJSON() for a 500-response survey, and prints how long each
+     * takes for the whole survey.
+     */
+    @Test
+    public void writesWhatToJsonWrites() throws Exception {
+        Survey survey = createSurvey();
+        List<SendModel> elements = new ArrayList<>();
+        elements.add(survey);
+        elements.addAll(survey.responses());
+
+        long start = System.nanoTime();
+        List<String> expected = new ArrayList<>();
+        for (SendModel element : elements) {
+            expected.add(element.toJSON().toString());
+        }
+        long toJsonNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        SurveySerializer serializer = new SurveySerializer(elements);
+        List<String> written = new ArrayList<>();
+        for (SendModel element : elements) {
+            written.add(new String(serializer.toBytes(element, null), UTF_8));
+        }
+        long serializerNanos = System.nanoTime() - start;
+
+        System.out.println("SurveySerializer, 1 survey of " + RESPONSES + " responses: toJSON() " +
+                toJsonNanos / 1000000 + " ms -> " + serializerNanos / 1000000 + " ms");
+        assertEquals(1 + RESPONSES, written.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertEquals(new JSONObject(expected.get(i)).toString(),
+                    new JSONObject(written.get(i)).toString());
+        }
+    }
+
+    private static Survey createSurvey() {
+        Instrument instrument = Fixtures.createInstrument(1L);
+        Survey survey = Fixtures.createSurvey(instrument, 0);
+        ActiveAndroid.beginTransaction();
+        try {
+            for (int i = 1; i <= RESPONSES; i++) {
+                Question question = new Question();
+                question.setRemoteId((long) i);
+                question.setQuestionIdentifier("q" + i);
+                question.save();
+                Response response = new Response();
+                response.setSurvey(survey);
+                response.setQuestion(question);
+                response.setResponse("Response " + i);
+                response.save();
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+        return survey;
+    }
+}
@@ -0,0 +1,94 @@
+package org.adaptlab.chpir.android.survey.models;
+
+import com.activeandroid.ActiveAndroid;
+import com.activeandroid.query.Select;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SurveySnapshotTest {
+    private static final int RESPONSES = 1000;
+    // Reopening a survey of RESPONSES responses on a mid-range device
+    private static final long TARGET_MILLIS = 200;
+
+    /*
+     * Loads what responsesMap() loaded response by response, and prints how long each takes
+     * for a 1,000-response survey.
+     */
+    @Test
+    public void loadsTheResponsesOfASurveyWithTheirQuestions() {
+        Survey survey = createSurvey();
+        Response photographed = createPhoto(survey);
+
+        long start = System.nanoTime();
+        Map<String, Long> expected = new HashMap<>();
+        List<Response> responses = new Select().from(Response.class)
+                .where("SurveyUUID = ?", survey.getUUID()).execute();
+        for (Response response : responses) {
+            expected.put(response.getQuestion().getQuestionIdentifier(), response.getId());
+            response.getResponsePhoto();
+        }
+        long rowByRowMillis = (System.nanoTime() - start) / 1000000;
+
+        // Warm up the class loading and statement caches that a reopened survey has
+        SurveySnapshot.load(survey, null);
+        start = System.nanoTime();
+        SurveySnapshot snapshot = SurveySnapshot.load(survey, null);
+        HashMap<String, Response> map = snapshot.responsesMap();
+        long snapshotMillis = (System.nanoTime() - start) / 1000000;
+
+        System.out.println("SurveySnapshot, " + RESPONSES + " responses: row by row " +
+                rowByRowMillis + " ms -> " + snapshotMillis + " ms");
+        assertEquals(RESPONSES, snapshot.responses().size());
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()).getId());
+        }
+        assertTrue(snapshot.hasPhoto(map.get(photographed.getQuestion()
+                .getQuestionIdentifier())));
+        assertFalse(snapshot.hasPhoto(map.get("q1")));
+        assertTrue(snapshotMillis + " ms", snapshotMillis < TARGET_MILLIS);
+    }
+
+    private static Survey createSurvey() {
+        Survey survey = Fixtures.createSurvey(Fixtures.createInstrument(1L), 0);
+        ActiveAndroid.beginTransaction();
+        try {
+            for (int i = 1; i <= RESPONSES; i++) {
+                Question question = new Question();
+                question.setRemoteId((long) i);
+                question.setQuestionIdentifier("q" + i);
+                question.save();
+                Response response = new Response();
+                response.setSurvey(survey);
+                response.setQuestion(question);
+                response.setResponse("Response " + i);
+                response.save();
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+        return survey;
+    }
+
+    private static Response createPhoto(Survey survey) {
+        Response response = new Select().from(Response.class)
+                .where("SurveyUUID = ?", survey.getUUID()).orderBy("Id DESC").executeSingle();
+        ResponsePhoto photo = new ResponsePhoto();
+        photo.setResponse(response);
+        photo.setPicturePath("picture.jpg");
+        photo.save();
+        return response;
+    }
+}
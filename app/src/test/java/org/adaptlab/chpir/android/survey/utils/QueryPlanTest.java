@@ -0,0 +1,76 @@
+package org.adaptlab.chpir.android.survey.utils;
+
+import com.activeandroid.query.From;
+import com.activeandroid.query.Select;
+
+import org.adaptlab.chpir.android.survey.models.Display;
+import org.adaptlab.chpir.android.survey.models.NextQuestion;
+import org.adaptlab.chpir.android.survey.models.OptionScore;
+import org.adaptlab.chpir.android.survey.models.OutboxEntry;
+import org.adaptlab.chpir.android.survey.models.Response;
+import org.adaptlab.chpir.android.survey.models.ResponsePhoto;
+import org.adaptlab.chpir.android.survey.models.Survey;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * The hot finders are answered from the indexes of migration 99 on a freshly created
+ * database, which runs every migration after creating the tables.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryPlanTest {
+
+    @Test
+    public void surveyResponsesUseTheirIndexes() {
+        assertUses("index_Responses_SurveyUUID_TimeEnded", new Select().from(Response.class)
+                .where("SurveyUUID = ?", "").orderBy("TimeEnded"));
+        assertUses("index_Responses_SurveyUUID_Question", new Select().from(Response.class)
+                .where("Question = ? AND SurveyUUID = ?", 0, ""));
+        assertUses("index_Responses_UUID", new Select().from(Response.class)
+                .where("UUID = ?", ""));
+        assertUses("index_ResponsePhotos_Response", new Select().from(ResponsePhoto.class)
+                .where("Response = ?", 0));
+    }
+
+    @Test
+    public void surveysUseTheirIndexes() {
+        assertUses("index_Surveys_UUID", new Select().from(Survey.class).where("UUID = ?", ""));
+        assertUses("index_Surveys_ProjectId_RosterUUID_LastUpdated", new Select()
+                .from(Survey.class).where("ProjectId = ? AND RosterUUID IS null", 0)
+                .orderBy("LastUpdated DESC"));
+    }
+
+    @Test
+    public void outboxUsesItsIndexes() {
+        assertUses("index_OutboxEntries_Model", new Select().from(OutboxEntry.class)
+                .where("ModelClass = ? AND ModelId IN (?,?)", "", 0, 1));
+        assertUses("index_OutboxEntries_NextAttemptAt", new Select().from(OutboxEntry.class)
+                .orderBy("NextAttemptAt ASC"));
+    }
+
+    @Test
+    public void instrumentTablesUseTheirIndexes() {
+        assertUses("index_OptionScores_ScoreUnit_Option", new Select().from(OptionScore.class)
+                .where("ScoreUnit = ?", 0));
+        assertUses("index_NextQuestions_RemoteInstrumentId", new Select()
+                .from(NextQuestion.class).where("RemoteInstrumentId = ? AND Deleted != ?", 0, 1));
+        assertUses("index_Displays_RemoteId", new Select().from(Display.class)
+                .where("RemoteId = ?", 0));
+    }
+
+    private static void assertUses(String index, From query) {
+        List<String> plan = QueryPlan.explain(query);
+        boolean used = false;
+        for (String step : plan) {
+            if (step.contains(index)) used = true;
+        }
+        assertTrue(query.toSql() + " " + plan, used);
+        assertFalse(query.toSql() + " " + plan, QueryPlan.scans(query));
+    }
+}